@@ -0,0 +1,97 @@
+package cs245.as3.driver;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import cs245.as3.TransactionManager;
+
+/**
+ * Allocation rate of the synchronous commit path: start, writesPerTxn writes and commit of one transaction,
+ * with persistence callbacks delivered every TransactionManagerBenchmark.PERSIST_EVERY transactions as the storage manager would.
+ * <p>
+ * The interesting number is gc.alloc.rate.norm (bytes allocated per transaction) from JMH's GC profiler.
+ * main runs the benchmark with the profiler attached; from the benchmarks jar use
+ * {@code java -jar target/benchmarks.jar CommitAllocationBenchmark -prof gc}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+public class CommitAllocationBenchmark {
+    @Param({"16", "128"})
+    public int valueSize;
+
+    @Param({"1", "10"})
+    public int writesPerTxn;
+
+    @Param({"100", "100000"})
+    public int keySpace;
+
+    LogManagerImpl lm;
+    StorageManagerImpl sm;
+    TransactionManager tm;
+    byte[][] values;
+    Random r;
+    long txID;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        r = new Random(42);
+        values = new byte[64][valueSize];
+        for (byte[] value : values) {
+            r.nextBytes(value);
+        }
+        lm = null;
+        sm = null;
+        tm = null;
+        lm = new LogManagerImpl();
+        sm = new StorageManagerImpl();
+        tm = new TransactionManager();
+        sm.setPersistenceListener(tm);
+        sm.in_recovery = true;
+        tm.initAndRecover(sm, lm);
+        sm.in_recovery = false;
+    }
+
+    @Benchmark
+    public void commit() {
+        if (lm.getLogEndOffset() > TransactionManagerBenchmark.LOG_LIMIT) {
+            setUp();
+        }
+        txID++;
+        tm.start(txID);
+        for (int i = 0; i < writesPerTxn; i++) {
+            tm.write(txID, r.nextInt(keySpace), values[r.nextInt(64)]);
+        }
+        tm.commit(txID);
+        if (txID % TransactionManagerBenchmark.PERSIST_EVERY == 0) {
+            sm.do_persistence_work();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CommitAllocationBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,133 @@
+package cs245.as3.driver;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cs245.as3.TransactionManager;
+import cs245.as3.interfaces.StorageManager.TaggedValue;
+
+/**
+ * Time for the TransactionManager to process the persistence callbacks for, and to recover, a fixed history of
+ * TXNS transactions. Each iteration rebuilds the history, so every measurement is a single cold run over it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+public class RecoveryBenchmark {
+    static final int TXNS = 20000;
+
+    @Param({"16", "128", "1024"})
+    public int valueSize;
+
+    @Param({"1", "10"})
+    public int writesPerTxn;
+
+    @Param({"100", "100000"})
+    public int keySpace;
+
+    /**
+     * Fraction of transactions in the history that were aborted
+     */
+    @Param({"0", "0.1"})
+    public double abortRatio;
+
+    LogManagerImpl lm;
+    StorageManagerImpl sm;
+    TransactionManager tm;
+    /**
+     * Every write queued to storage, in commit order
+     */
+    long[] keys;
+    TaggedValue[] versions;
+    int writes;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        lm = null;
+        sm = null;
+        tm = null;
+        lm = new LogManagerImpl();
+        sm = new StorageManagerImpl();
+        tm = new TransactionManager();
+        sm.setPersistenceListener(tm);
+        sm.in_recovery = true;
+        tm.initAndRecover(sm, lm);
+        sm.in_recovery = false;
+
+        Random r = new Random(42);
+        keys = new long[TXNS * writesPerTxn];
+        versions = new TaggedValue[TXNS * writesPerTxn];
+        writes = 0;
+        long[] txnKeys = new long[writesPerTxn];
+        for (long txID = 0; txID < TXNS; txID++) {
+            tm.start(txID);
+            for (int i = 0; i < writesPerTxn; i++) {
+                byte[] value = new byte[valueSize];
+                r.nextBytes(value);
+                txnKeys[i] = r.nextInt(keySpace);
+                tm.write(txID, txnKeys[i], value);
+            }
+            if (abortRatio > 0 && r.nextDouble() < abortRatio) {
+                tm.abort(txID);
+                continue;
+            }
+            tm.commit(txID);
+            for (int i = 0; i < writesPerTxn; i++) {
+                if (!seenBefore(txnKeys, i)) {
+                    // 同一个事务对一个键的多次写只产生一个版本
+                    keys[writes] = txnKeys[i];
+                    versions[writes++] = sm.readLatestTaggedValue(txnKeys[i]);
+                }
+            }
+        }
+    }
+
+    private static boolean seenBefore(long[] keys, int i) {
+        for (int j = 0; j < i; j++) {
+            if (keys[j] == keys[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The storage manager's callback for every queued write, replayed in commit order
+     */
+    @Benchmark
+    public void writePersisted() {
+        for (int i = 0; i < writes; i++) {
+            tm.writePersisted(keys[i], versions[i].tag, versions[i].value);
+        }
+    }
+
+    /**
+     * Crash with nothing persisted, then recover from the whole history
+     */
+    @Benchmark
+    public TransactionManager initAndRecover() {
+        sm.crash();
+        TransactionManager recovered = new TransactionManager();
+        sm.setPersistenceListener(recovered);
+        sm.in_recovery = true;
+        recovered.initAndRecover(sm, lm);
+        sm.in_recovery = false;
+        return recovered;
+    }
+}
@@ -0,0 +1,154 @@
+package cs245.as3.driver;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cs245.as3.TransactionManager;
+
+/**
+ * Throughput of the TransactionManager operations a client calls: write, commit and read,
+ * against LogManagerImpl and StorageManagerImpl.
+ * <p>
+ * Every iteration starts from a fresh log and a store preloaded with every key of the key space.
+ * Both the preload and the commit benchmark persist every PERSIST_EVERY transactions.
+ * LogManagerImpl has a fixed 1 GB buffer, so a benchmark that fills it starts over on a new log;
+ * the occasional reset is included in the measurement.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+public class TransactionManagerBenchmark {
+    /**
+     * Start over on a new log before LogManagerImpl's buffer is full
+     */
+    static final int LOG_LIMIT = 900000000;
+
+    /**
+     * Persistence callbacks are delivered every PERSIST_EVERY transactions, as the storage manager would,
+     * so checkpoints can truncate the log
+     */
+    static final int PERSIST_EVERY = 100;
+
+    @Param({"16", "128", "1024"})
+    public int valueSize;
+
+    @Param({"1", "10"})
+    public int writesPerTxn;
+
+    @Param({"100", "100000"})
+    public int keySpace;
+
+    /**
+     * Fraction of transactions aborted instead of committed by the commit benchmark
+     */
+    @Param({"0", "0.1"})
+    public double abortRatio;
+
+    LogManagerImpl lm;
+    StorageManagerImpl sm;
+    TransactionManager tm;
+    byte[][] values;
+    Random r;
+    long txID;
+    int writesInTxn;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        r = new Random(42);
+        values = new byte[64][valueSize];
+        for (byte[] value : values) {
+            r.nextBytes(value);
+        }
+        reset();
+    }
+
+    /**
+     * New log, store and transaction manager with every key committed and persisted once.
+     * No transaction is left open; write() starts its own.
+     */
+    void reset() {
+        lm = null;
+        sm = null;
+        tm = null;
+        lm = new LogManagerImpl();
+        sm = new StorageManagerImpl();
+        tm = new TransactionManager();
+        sm.setPersistenceListener(tm);
+        sm.in_recovery = true;
+        tm.initAndRecover(sm, lm);
+        sm.in_recovery = false;
+        for (int key = 0; key < keySpace; key++) {
+            tm.start(txID);
+            tm.write(txID, key, values[key & 63]);
+            tm.commit(txID);
+            txID++;
+            if (txID % PERSIST_EVERY == 0) {
+                sm.do_persistence_work();
+            }
+        }
+        sm.do_persistence_work();
+        writesInTxn = 0;
+    }
+
+    /**
+     * Buffers one write. Every writesPerTxn writes the transaction is aborted and a new one started,
+     * so no log is written.
+     */
+    @Benchmark
+    public void write() {
+        if (writesInTxn == writesPerTxn) {
+            tm.abort(txID);
+            writesInTxn = 0;
+        }
+        if (writesInTxn == 0) {
+            txID++;
+            tm.start(txID);
+        }
+        tm.write(txID, r.nextInt(keySpace), values[r.nextInt(64)]);
+        writesInTxn++;
+    }
+
+    /**
+     * One whole transaction: start, writesPerTxn writes, then commit (or abort with probability abortRatio)
+     */
+    @Benchmark
+    public void commit() {
+        if (lm.getLogEndOffset() > LOG_LIMIT) {
+            reset();
+        }
+        txID++;
+        tm.start(txID);
+        for (int i = 0; i < writesPerTxn; i++) {
+            tm.write(txID, r.nextInt(keySpace), values[r.nextInt(64)]);
+        }
+        if (abortRatio > 0 && r.nextDouble() < abortRatio) {
+            tm.abort(txID);
+        } else {
+            tm.commit(txID);
+        }
+        if (txID % PERSIST_EVERY == 0) {
+            sm.do_persistence_work();
+        }
+    }
+
+    @Benchmark
+    public byte[] read() {
+        return tm.read(txID, r.nextInt(keySpace));
+    }
+}
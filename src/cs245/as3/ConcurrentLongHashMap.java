@@ -0,0 +1,86 @@
+package cs245.as3;
+
+/**
+ * 分段加锁的线程安全LongHashMap
+ * <p>
+ * 键按哈希的低位分到若干段，每段是一个独立加锁的LongHashMap，不同段的操作互不阻塞。
+ * 用于事务管理器中会被多个线程同时访问的键值表。
+ */
+public class ConcurrentLongHashMap<V> {
+    private final LongHashMap<V>[] stripes;
+    private final int mask;
+
+    public ConcurrentLongHashMap() {
+        this(Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    @SuppressWarnings("unchecked")
+    public ConcurrentLongHashMap(int concurrency) {
+        int n = Integer.highestOneBit(Math.max(1, concurrency) - 1) << 1;
+        n = Math.max(1, n);
+        stripes = (LongHashMap<V>[]) new LongHashMap<?>[n];
+        for (int i = 0; i < n; i++) {
+            stripes[i] = new LongHashMap<>();
+        }
+        mask = n - 1;
+    }
+
+    /**
+     * @return 段的数量
+     */
+    public int stripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     * @return 键所在的段
+     */
+    public int stripeOf(long key) {
+        return (int) LongHashMap.mix(key) & mask;
+    }
+
+    public V get(long key) {
+        LongHashMap<V> stripe = stripes[stripeOf(key)];
+        synchronized (stripe) {
+            return stripe.get(key);
+        }
+    }
+
+    public V put(long key, V value) {
+        LongHashMap<V> stripe = stripes[stripeOf(key)];
+        synchronized (stripe) {
+            return stripe.put(key, value);
+        }
+    }
+
+    /**
+     * @return 已经存在的值，不存在时写入value并返回null
+     */
+    public V putIfAbsent(long key, V value) {
+        LongHashMap<V> stripe = stripes[stripeOf(key)];
+        synchronized (stripe) {
+            V old = stripe.get(key);
+            if (old == null) {
+                stripe.put(key, value);
+            }
+            return old;
+        }
+    }
+
+    public V remove(long key) {
+        LongHashMap<V> stripe = stripes[stripeOf(key)];
+        synchronized (stripe) {
+            return stripe.remove(key);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (LongHashMap<V> stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,180 @@
+package cs245.as3;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+import cs245.as3.interfaces.BufferLogManager;
+
+/**
+ * 堆外内存中的日志
+ * <p>
+ * 日志按偏移切分成固定长度的段，每段是一块直接内存，追加到新的段时才分配，不会像LogManagerImpl那样
+ * 在堆上预先分配1GB的数组。段组成一个环：截断时完全位于截断偏移之前的段放回空闲列表，追加到新的段时优先复用，
+ * 空闲列表满了才丢弃，由GC释放直接内存。常驻内存只和未截断的日志长度有关，持续追加不会耗尽内存，
+ * 也不依赖GC及时释放直接内存。
+ * <p>
+ * 偏移是64位的日志序列号，段号是日志序列号除以段长度，不会随着追加溢出；int接口在偏移超过int范围时抛出异常。
+ * readLogBuffer返回段的只读视图，不复制数据。内存中的日志不能跨进程保留，用于测试和不需要持久化的场景。
+ */
+public class DirectLogManager implements BufferLogManager {
+    /**
+     * 默认的段长度
+     */
+    public final static int DEFAULT_SEGMENT_SIZE = 1 << 20;
+    /**
+     * 空闲列表最多保留的段数量
+     */
+    private final static int MAX_FREE_SEGMENTS = 2;
+
+    private final int segmentSize;
+
+    /**
+     * 从firstSegment开始的连续的段，第i个段覆盖日志偏移[(firstSegment + i) * segmentSize, (firstSegment + i + 1) * segmentSize)
+     */
+    private final ArrayList<ByteBuffer> segments = new ArrayList<>();
+    private long firstSegment;
+    /**
+     * 截断后等待复用的段，以及一共分配过的段数量
+     */
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+    private long allocated;
+
+    private volatile long end;
+    private volatile long truncationOffset;
+
+    public DirectLogManager() {
+        this(DEFAULT_SEGMENT_SIZE);
+    }
+
+    public DirectLogManager(int segmentSize) {
+        this(segmentSize, 0);
+    }
+
+    /**
+     * 从startLsn开始的空日志，startLsn之前的部分视为已经截断，用于接续另一个日志的序列号
+     */
+    public DirectLogManager(int segmentSize, long startLsn) {
+        this.segmentSize = segmentSize;
+        this.firstSegment = startLsn / segmentSize;
+        this.end = startLsn;
+        this.truncationOffset = startLsn;
+    }
+
+    @Override
+    public long getLogEndLsn() {
+        return end;
+    }
+
+    @Override
+    public synchronized byte[] readLog(long lsn, int size) {
+        checkRange(lsn, size);
+        byte[] record = new byte[size];
+        int done = 0;
+        while (done < size) {
+            long position = lsn + done;
+            ByteBuffer view = segment(position).duplicate();
+            view.position((int) (position % segmentSize));
+            int n = Math.min(size - done, view.remaining());
+            view.get(record, done, n);
+            done += n;
+        }
+        return record;
+    }
+
+    @Override
+    public synchronized ByteBuffer readLogBuffer(long lsn, int maxSize) {
+        checkRange(lsn, 1);
+        int from = (int) (lsn % segmentSize);
+        int n = (int) Math.min(Math.min(maxSize, end - lsn), segmentSize - from);
+        ByteBuffer view = segment(lsn).duplicate();
+        view.limit(from + n).position(from);
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    @Override
+    public synchronized long appendLog(byte[] record) {
+        long prior = end;
+        int done = 0;
+        while (done < record.length) {
+            long position = prior + done;
+            // 追加到新的段时优先复用截断释放的段，没有时才分配
+            if (position / segmentSize >= firstSegment + segments.size()) {
+                ByteBuffer segment = free.poll();
+                if (segment == null) {
+                    segment = ByteBuffer.allocateDirect(segmentSize);
+                    allocated++;
+                }
+                segments.add(segment);
+            }
+            ByteBuffer view = segment(position).duplicate();
+            view.position((int) (position % segmentSize));
+            int n = Math.min(record.length - done, view.remaining());
+            view.put(record, done, n);
+            done += n;
+        }
+        end = prior + record.length;
+        return prior;
+    }
+
+    /**
+     * 在同一个锁内连续追加，其他线程看不到只追加了一部分的记录
+     */
+    @Override
+    public synchronized long appendLogs(byte[][] records) {
+        long prior = end;
+        for (byte[] record : records) {
+            appendLog(record);
+        }
+        return prior;
+    }
+
+    @Override
+    public long getLogTruncationLsn() {
+        return truncationOffset;
+    }
+
+    @Override
+    public synchronized void setLogTruncationLsn(long lsn) {
+        if (lsn > end || lsn < truncationOffset) {
+            throw new IllegalArgumentException();
+        }
+        truncationOffset = lsn;
+        // 回收完全位于截断偏移之前的段，正在追加的最后一个段总是保留
+        int obsolete = (int) Math.min(lsn / segmentSize - firstSegment, segments.size() - 1);
+        for (int i = 0; i < obsolete; i++) {
+            if (free.size() < MAX_FREE_SEGMENTS) {
+                free.add(segments.get(i));
+            }
+        }
+        if (obsolete > 0) {
+            segments.subList(0, obsolete).clear();
+            firstSegment += obsolete;
+        }
+    }
+
+    /**
+     * @return 当前占用的段数量，不包括空闲的段
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * @return 一共分配过的段数量
+     */
+    public synchronized long getAllocatedSegmentCount() {
+        return allocated;
+    }
+
+    private void checkRange(long lsn, int size) {
+        if (lsn < truncationOffset || lsn + size > end) {
+            throw new ArrayIndexOutOfBoundsException("Offset " + (lsn + size) + " invalid: log start offset is "
+                    + truncationOffset + ", log end offset is " + end);
+        }
+    }
+
+    private ByteBuffer segment(long position) {
+        return segments.get((int) (position / segmentSize - firstSegment));
+    }
+}
@@ -0,0 +1,334 @@
+package cs245.as3;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+
+import cs245.as3.interfaces.LsnLogManager;
+
+/**
+ * 基于文件的持久化日志
+ * <p>
+ * 日志按偏移切分成固定长度的段文件，文件名是段的起始偏移。追加写入最后一个段，写满后新建下一个段，
+ * 一次追加可以跨越两个段。appendLog在数据和元数据都force之后才返回；同时追加的多个线程合并成一次force：
+ * 拿到force锁的线程force到当时的日志结尾，等待锁期间到达的追加也一起持久化，其余线程发现已经持久化后直接返回。
+ * <p>
+ * 段文件的命名和记录持久化结尾、截断偏移的元数据文件由LogDirectory管理，偏移都是64位的日志序列号，日志可以超过2GB。
+ * 崩溃时最后一个段中超过持久化结尾的部分属于没有返回的追加，重新打开时被丢弃。
+ * 截断时完全位于截断偏移之前的段文件被删除，删除之前先持久化截断偏移；不删除段时截断偏移随下一次force持久化，
+ * 重新打开后从较早的截断偏移恢复也是正确的。
+ */
+public class FileLogManager implements LsnLogManager, Closeable {
+    /**
+     * 默认的段长度
+     */
+    public final static int DEFAULT_SEGMENT_SIZE = 64 << 20;
+    private final static int STAGING_SIZE = 1 << 16;
+
+    private final LogDirectory directory;
+    private final int segmentSize;
+
+    /**
+     * 段的起始偏移到文件，读取、追加和删除段时都在segments的锁内访问
+     */
+    private final TreeMap<Long, FileChannel> segments = new TreeMap<>();
+
+    /**
+     * 追加的锁。end是已经写入的日志结尾，可能还没有force
+     */
+    private final Object appendLock = new Object();
+    private volatile long end;
+    /**
+     * 写入之后还没有force的段
+     */
+    private final ArrayList<FileChannel> unsynced = new ArrayList<>();
+    /**
+     * appendLogs复用的缓冲区，只在appendLock内使用
+     */
+    private final ByteBuffer staging = ByteBuffer.allocate(STAGING_SIZE);
+
+    /**
+     * 组force的锁，force期间一直持有。durableEnd是已经持久化的日志结尾
+     */
+    private final Object syncLock = new Object();
+    private long durableEnd;
+    private long syncCount;
+
+    private volatile long truncationOffset;
+
+    public FileLogManager(Path directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * 打开目录中的日志，目录不存在或为空时创建新日志
+     */
+    public FileLogManager(Path directory, int segmentSize) {
+        this.segmentSize = segmentSize;
+        try {
+            this.directory = new LogDirectory(directory);
+            truncationOffset = this.directory.getTruncationOffset();
+            durableEnd = this.directory.getDurableEnd();
+            end = durableEnd;
+            openSegments();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public long getLogEndLsn() {
+        return end;
+    }
+
+    @Override
+    public byte[] readLog(long lsn, int size) {
+        byte[] record = new byte[size];
+        readLogRange(lsn, size, ByteBuffer.wrap(record));
+        return record;
+    }
+
+    /**
+     * 直接读到dst中，每个段一次定位读，不经过中间数组
+     */
+    @Override
+    public void readLogRange(long lsn, int length, ByteBuffer dst) {
+        if (lsn < truncationOffset || lsn + length > end) {
+            throw new ArrayIndexOutOfBoundsException("Offset " + (lsn + length) + " invalid: log start offset is "
+                    + truncationOffset + ", log end offset is " + end);
+        }
+        if (dst.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        int limit = dst.limit();
+        int base = dst.position();
+        try {
+            synchronized (segments) {
+                while (dst.position() - base < length) {
+                    long position = lsn + dst.position() - base;
+                    Map.Entry<Long, FileChannel> segment = segments.floorEntry(position);
+                    dst.limit((int) Math.min(base + length, dst.position() + segment.getKey() + segmentSize - position));
+                    while (dst.hasRemaining()) {
+                        if (segment.getValue().read(dst, lsn + dst.position() - base - segment.getKey()) < 0) {
+                            throw new IOException("Unexpected end of segment " + segment.getKey());
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            dst.limit(limit);
+        }
+    }
+
+    @Override
+    public long appendLog(byte[] record) {
+        long prior;
+        long recordEnd;
+        try {
+            synchronized (appendLock) {
+                prior = end;
+                write(ByteBuffer.wrap(record));
+                recordEnd = end;
+            }
+            sync(recordEnd);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return prior;
+    }
+
+    /**
+     * 所有记录先批量复制到一个缓冲区，每个段只写一次，只force一次；元数据中的日志结尾一次越过所有记录，
+     * 崩溃后要么全部保留要么全部丢弃
+     */
+    @Override
+    public long appendLogs(byte[][] records) {
+        long prior;
+        long recordsEnd;
+        try {
+            synchronized (appendLock) {
+                prior = end;
+                int length = 0;
+                for (byte[] record : records) {
+                    length += record.length;
+                }
+                ByteBuffer buffer = staging.capacity() >= length ? staging : ByteBuffer.allocate(length);
+                buffer.clear();
+                for (byte[] record : records) {
+                    buffer.put(record);
+                }
+                buffer.flip();
+                write(buffer);
+                recordsEnd = end;
+            }
+            if (recordsEnd > prior) {
+                sync(recordsEnd);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return prior;
+    }
+
+    @Override
+    public long getLogTruncationLsn() {
+        return truncationOffset;
+    }
+
+    @Override
+    public void setLogTruncationLsn(long lsn) {
+        if (lsn > end || lsn < truncationOffset) {
+            throw new IllegalArgumentException();
+        }
+        truncationOffset = lsn;
+        try {
+            ArrayList<FileChannel> obsolete = new ArrayList<>();
+            ArrayList<Long> starts = new ArrayList<>();
+            synchronized (segments) {
+                // 只删除整个位于截断偏移之前的段，正在追加的最后一个段总是保留
+                for (Map.Entry<Long, FileChannel> segment : segments.entrySet()) {
+                    if (segment.getKey() + segmentSize > lsn || segment.getKey().equals(segments.lastKey())) {
+                        break;
+                    }
+                    obsolete.add(segment.getValue());
+                    starts.add(segment.getKey());
+                }
+                if (obsolete.isEmpty()) {
+                    return;
+                }
+                for (long start : starts) {
+                    segments.remove(start);
+                }
+            }
+            // 删除段文件之前先持久化截断偏移，重新打开时不会从已删除的段开始恢复
+            synchronized (syncLock) {
+                directory.write(truncationOffset, durableEnd);
+            }
+            for (int i = 0; i < obsolete.size(); i++) {
+                obsolete.get(i).close();
+                Files.deleteIfExists(directory.segmentPath(starts.get(i)));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return force的次数，每次force可以持久化多个线程的追加
+     */
+    public long getSyncCount() {
+        synchronized (syncLock) {
+            return syncCount;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (segments) {
+            for (FileChannel channel : segments.values()) {
+                channel.close();
+            }
+            segments.clear();
+        }
+        directory.close();
+    }
+
+    /**
+     * 把buffer剩余的字节写到日志结尾并推进end，追加可能跨越段的边界。在appendLock内调用
+     */
+    private void write(ByteBuffer buffer) throws IOException {
+        long start = end - buffer.position();
+        int limit = buffer.limit();
+        while (buffer.position() < limit) {
+            long position = start + buffer.position();
+            long segmentStart = position - position % segmentSize;
+            FileChannel channel = segment(segmentStart);
+            buffer.limit((int) Math.min(limit, segmentStart + segmentSize - start));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, start + buffer.position() - segmentStart);
+            }
+            buffer.limit(limit);
+            if (!unsynced.contains(channel)) {
+                unsynced.add(channel);
+            }
+        }
+        end = start + limit;
+    }
+
+    /**
+     * 等待日志持久化到recordEnd。拿到锁时如果还没有持久化，由当前线程force到当前的日志结尾，
+     * 等待锁期间到达的追加也一起持久化
+     */
+    private void sync(long recordEnd) throws IOException {
+        synchronized (syncLock) {
+            if (durableEnd >= recordEnd) {
+                return;
+            }
+            long target;
+            FileChannel[] channels;
+            synchronized (appendLock) {
+                target = end;
+                channels = unsynced.toArray(new FileChannel[0]);
+                unsynced.clear();
+            }
+            for (FileChannel channel : channels) {
+                try {
+                    channel.force(false);
+                } catch (ClosedChannelException e) {
+                    // 段已经因为截断被删除，其中的数据不再需要持久化
+                }
+            }
+            directory.write(truncationOffset, target);
+            durableEnd = target;
+            syncCount++;
+        }
+    }
+
+    /**
+     * 打开已有的段，删除截断偏移之前的段，丢弃持久化结尾之后没有返回的追加
+     */
+    private void openSegments() throws IOException {
+        for (Map.Entry<Long, Path> file : directory.segmentFiles().entrySet()) {
+            long start = file.getKey();
+            if (start >= end || (start + segmentSize <= truncationOffset && start + segmentSize < end)) {
+                Files.delete(file.getValue());
+                continue;
+            }
+            FileChannel channel = FileChannel.open(file.getValue(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long length = Math.min(segmentSize, end - start);
+            if (channel.size() < length) {
+                channel.close();
+                throw new IOException("Segment " + file.getValue() + " is shorter than the durable log end " + end);
+            }
+            channel.truncate(length);
+            segments.put(start, channel);
+        }
+    }
+
+    /**
+     * @return 从segmentStart开始的段，不存在时创建。在appendLock内调用
+     */
+    private FileChannel segment(long segmentStart) throws IOException {
+        synchronized (segments) {
+            FileChannel channel = segments.get(segmentStart);
+            if (channel == null) {
+                channel = FileChannel.open(directory.segmentPath(segmentStart),
+                        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                segments.put(segmentStart, channel);
+            }
+            return channel;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package cs245.as3;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 日志值的压缩器，LZ4风格的块格式，纯Java实现
+ * <p>
+ * 压缩结果是一串序列：令牌字节(高4位字面量长度，低4位匹配长度-4) + 字面量长度扩展 + 字面量
+ * + 匹配偏移(2字节小端) + 匹配长度扩展。长度达到15时后面跟若干字节扩展，每个字节加到长度上，255表示还有下一个字节。
+ * 最后一个序列只有字面量，没有匹配。
+ * <p>
+ * 压缩器带有哈希表和输出缓冲区，压缩时不分配对象，不是线程安全的，由LogWriter在日志顺序锁内使用。
+ * 只有不小于阈值的值才尝试压缩。
+ */
+public class LogCompressor {
+    /**
+     * 默认的压缩阈值
+     */
+    public final static int DEFAULT_THRESHOLD = 128;
+
+    private final static int MIN_MATCH = 4;
+    private final static int MAX_OFFSET = 65535;
+    private final static int HASH_BITS = 12;
+
+    /**
+     * 哈希表保存base+位置，小于base的是之前压缩留下的过期项，这样每次压缩不需要清空哈希表
+     */
+    private final int[] table = new int[1 << HASH_BITS];
+    private int base = 1;
+
+    /**
+     * 压缩输出，反复使用
+     */
+    private byte[] output = new byte[256];
+
+    private int threshold;
+
+    public LogCompressor(int threshold) {
+        this.threshold = threshold;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @param threshold 尝试压缩的最小值长度，Integer.MAX_VALUE表示不压缩
+     */
+    public void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * 是否应该尝试压缩长度为length的值
+     */
+    public boolean accepts(int length) {
+        return length >= threshold;
+    }
+
+    /**
+     * 压缩src，结果保存在getOutput()的前面
+     * @return 压缩后的长度
+     */
+    public int compress(byte[] src) {
+        int n = src.length;
+        if (output.length < n + n / 255 + 16) {
+            output = new byte[n + n / 255 + 16];
+        }
+        if (base > Integer.MAX_VALUE - n) {
+            Arrays.fill(table, 0);
+            base = 1;
+        }
+        byte[] dst = output;
+        int d = 0;
+        int anchor = 0;
+        int i = 0;
+        while (i <= n - MIN_MATCH) {
+            int word = readInt(src, i);
+            int h = (word * -1640531535) >>> (32 - HASH_BITS);
+            int candidate = table[h] - base;
+            table[h] = base + i;
+            if (candidate < 0 || i - candidate > MAX_OFFSET || readInt(src, candidate) != word) {
+                i++;
+                continue;
+            }
+            int matchLength = MIN_MATCH;
+            while (i + matchLength < n && src[candidate + matchLength] == src[i + matchLength]) {
+                matchLength++;
+            }
+            d = putLiterals(dst, d, src, anchor, i - anchor, Math.min(matchLength - MIN_MATCH, 15));
+            int offset = i - candidate;
+            dst[d++] = (byte) offset;
+            dst[d++] = (byte) (offset >>> 8);
+            if (matchLength - MIN_MATCH >= 15) {
+                d = putLength(dst, d, matchLength - MIN_MATCH - 15);
+            }
+            i += matchLength;
+            anchor = i;
+        }
+        if (anchor < n) {
+            d = putLiterals(dst, d, src, anchor, n - anchor, 0);
+        }
+        base += n;
+        return d;
+    }
+
+    /**
+     * @return 最近一次压缩的结果
+     */
+    public byte[] getOutput() {
+        return output;
+    }
+
+    /**
+     * 从src当前位置读取compressedLength个字节的压缩数据，解压到dst，dst的长度就是原始长度
+     */
+    public static void decompress(ByteBuffer src, int compressedLength, byte[] dst) {
+        int end = src.position() + compressedLength;
+        int o = 0;
+        while (src.position() < end) {
+            int token = src.get() & 0xff;
+            int literals = token >>> 4;
+            if (literals == 15) {
+                literals += getLength(src);
+            }
+            src.get(dst, o, literals);
+            o += literals;
+            if (src.position() >= end) {
+                break;
+            }
+            int offset = (src.get() & 0xff) | (src.get() & 0xff) << 8;
+            int matchLength = token & 0x0f;
+            if (matchLength == 15) {
+                matchLength += getLength(src);
+            }
+            matchLength += MIN_MATCH;
+            // 匹配可以和输出重叠，逐字节复制
+            for (int k = 0; k < matchLength; k++, o++) {
+                dst[o] = dst[o - offset];
+            }
+        }
+        if (o != dst.length) {
+            throw new IllegalStateException("Decompressed " + o + " bytes, expected " + dst.length);
+        }
+    }
+
+    /**
+     * 写令牌、字面量长度扩展和字面量
+     */
+    private static int putLiterals(byte[] dst, int d, byte[] src, int from, int length, int matchToken) {
+        dst[d++] = (byte) (Math.min(length, 15) << 4 | matchToken);
+        if (length >= 15) {
+            d = putLength(dst, d, length - 15);
+        }
+        System.arraycopy(src, from, dst, d, length);
+        return d + length;
+    }
+
+    private static int putLength(byte[] dst, int d, int length) {
+        while (length >= 255) {
+            dst[d++] = (byte) 255;
+            length -= 255;
+        }
+        dst[d++] = (byte) length;
+        return d;
+    }
+
+    private static int getLength(ByteBuffer src) {
+        int length = 0;
+        int b;
+        do {
+            b = src.get() & 0xff;
+            length += b;
+        } while (b == 255);
+        return length;
+    }
+
+    private static int readInt(byte[] src, int i) {
+        return (src[i] & 0xff) | (src[i + 1] & 0xff) << 8 | (src[i + 2] & 0xff) << 16 | (src[i + 3] & 0xff) << 24;
+    }
+}
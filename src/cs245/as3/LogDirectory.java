@@ -0,0 +1,112 @@
+package cs245.as3;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * 分段日志的目录：段文件的命名和元数据文件
+ * <p>
+ * 段文件名是段的起始偏移。元数据文件记录已经持久化的日志结尾和截断偏移，两个槽位轮流写入，
+ * 每个槽位是 序号(8) + 截断偏移(8) + 日志结尾(8) + CRC(8)，打开时使用有效且序号最大的槽位，
+ * 写一个槽位时崩溃不会破坏另一个槽位。非线程安全，由使用它的日志在锁内调用。
+ */
+class LogDirectory implements Closeable {
+    private final static String SEGMENT_SUFFIX = ".log";
+    private final static String META_FILE = "meta";
+    private final static int META_SLOT_SIZE = 32;
+
+    private final Path directory;
+    private final FileChannel meta;
+    private long sequence;
+    private long truncationOffset;
+    private long durableEnd;
+
+    /**
+     * 打开目录并读取元数据，目录不存在时创建，没有有效元数据时截断偏移和日志结尾都是0
+     */
+    LogDirectory(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        meta = FileChannel.open(directory.resolve(META_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer slots = ByteBuffer.allocate(2 * META_SLOT_SIZE);
+        while (slots.hasRemaining()) {
+            if (meta.read(slots, slots.position()) < 0) {
+                break;
+            }
+        }
+        for (int i = 0; i < 2; i++) {
+            ByteBuffer slot = ByteBuffer.wrap(slots.array(), i * META_SLOT_SIZE, META_SLOT_SIZE);
+            long slotSequence = slot.getLong();
+            long truncation = slot.getLong();
+            long durable = slot.getLong();
+            CRC32 crc = new CRC32();
+            crc.update(slots.array(), i * META_SLOT_SIZE, 24);
+            if (slot.getLong() != crc.getValue() || slotSequence <= sequence) {
+                continue;
+            }
+            sequence = slotSequence;
+            truncationOffset = truncation;
+            durableEnd = durable;
+        }
+    }
+
+    long getTruncationOffset() {
+        return truncationOffset;
+    }
+
+    long getDurableEnd() {
+        return durableEnd;
+    }
+
+    /**
+     * 把截断偏移和日志结尾写到下一个槽位并force
+     */
+    void write(long truncationOffset, long durableEnd) throws IOException {
+        sequence++;
+        ByteBuffer slot = ByteBuffer.allocate(META_SLOT_SIZE);
+        slot.putLong(sequence).putLong(truncationOffset).putLong(durableEnd);
+        CRC32 crc = new CRC32();
+        crc.update(slot.array(), 0, 24);
+        slot.putLong(crc.getValue());
+        slot.flip();
+        long position = (sequence & 1) * META_SLOT_SIZE;
+        while (slot.hasRemaining()) {
+            meta.write(slot, position + slot.position());
+        }
+        meta.force(false);
+        this.truncationOffset = truncationOffset;
+        this.durableEnd = durableEnd;
+    }
+
+    /**
+     * @return 目录中的段文件，按起始偏移排序
+     */
+    TreeMap<Long, Path> segmentFiles() throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                files.put(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), path);
+            }
+        }
+        return files;
+    }
+
+    Path segmentPath(long segmentStart) {
+        return directory.resolve(String.format("%020d%s", segmentStart, SEGMENT_SUFFIX));
+    }
+
+    @Override
+    public void close() throws IOException {
+        meta.close();
+    }
+}
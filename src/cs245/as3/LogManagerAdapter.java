@@ -0,0 +1,73 @@
+package cs245.as3;
+
+import java.nio.ByteBuffer;
+
+import cs245.as3.interfaces.LogManager;
+import cs245.as3.interfaces.LsnLogManager;
+
+/**
+ * 把只支持int偏移的LogManager包装成LsnLogManager
+ * <p>
+ * 日志序列号和int偏移相同，被包装的日志本身不能超过2GB，超过int范围的日志序列号抛出IllegalStateException。
+ * TransactionManager只使用LsnLogManager，测试驱动传入的LogManagerImpl等实现通过这个类继续使用。
+ */
+public class LogManagerAdapter implements LsnLogManager {
+    private final LogManager logManager;
+
+    private LogManagerAdapter(LogManager logManager) {
+        this.logManager = logManager;
+    }
+
+    /**
+     * @return logManager本身已经是LsnLogManager时直接返回，否则返回包装
+     */
+    public static LsnLogManager of(LogManager logManager) {
+        if (logManager instanceof LsnLogManager) {
+            return (LsnLogManager) logManager;
+        }
+        return new LogManagerAdapter(logManager);
+    }
+
+    @Override
+    public long getLogEndLsn() {
+        return logManager.getLogEndOffset();
+    }
+
+    @Override
+    public byte[] readLog(long lsn, int size) {
+        return logManager.readLogRecord(LsnLogManager.toOffset(lsn), size);
+    }
+
+    /**
+     * 被包装的LogManager单次最多读取CHUNK_SIZE字节，按CHUNK_SIZE分段读取
+     */
+    @Override
+    public void readLogRange(long lsn, int length, ByteBuffer dst) {
+        int done = 0;
+        while (done < length) {
+            int n = Math.min(length - done, LogWriter.CHUNK_SIZE);
+            dst.put(readLog(lsn + done, n));
+            done += n;
+        }
+    }
+
+    @Override
+    public long appendLog(byte[] record) {
+        return logManager.appendLogRecord(record);
+    }
+
+    @Override
+    public long appendLogs(byte[][] records) {
+        return logManager.appendLogRecords(records);
+    }
+
+    @Override
+    public long getLogTruncationLsn() {
+        return logManager.getLogTruncationOffset();
+    }
+
+    @Override
+    public void setLogTruncationLsn(long lsn) {
+        logManager.setLogTruncationOffset(LsnLogManager.toOffset(lsn));
+    }
+}
@@ -0,0 +1,325 @@
+package cs245.as3;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import cs245.as3.interfaces.BufferLogManager;
+import cs245.as3.interfaces.LsnLogManager;
+
+/**
+ * 顺序读取日志的迭代器
+ * <p>
+ * 从起始偏移开始，每次读取一个连续的窗口，日志中的每个字节只读一次。
+ * LogManager是BufferLogManager时窗口是日志的只读视图，不限制长度也不复制，一次可以覆盖整个段。
+ * 否则用readLogRange把最多READ_WINDOW字节读到两个轮流使用的缓冲区：解码一个窗口的同时，
+ * 后台线程预读下一个窗口，读取和解码重叠。
+ * 批次和块的边界与窗口边界无关，跨窗口的块头和记录在这里拼接。
+ * 没有写完整的批次（崩溃时被截断）会被跳过，返回的都是完整批次中的日志记录。
+ * 升级之前写入的旧格式日志没有分块，第一个字节是非负txID的最高字节0，一段连续的旧格式日志作为一个批次读取。
+ * 提前结束迭代时调用close等待正在进行的预读。
+ */
+public class LogReader implements Iterator<LogRecords>, AutoCloseable {
+    /**
+     * 不支持只读视图时每次读取的最大长度
+     */
+    public final static int READ_WINDOW = 1 << 20;
+    /**
+     * 预读窗口的守护线程池
+     */
+    private final static ExecutorService PREFETCHERS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "log-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private LsnLogManager logManager;
+    /**
+     * logManager支持只读视图时不为null
+     */
+    private BufferLogManager bufferLogManager;
+    /**
+     * 日志结尾
+     */
+    private long end;
+
+    /**
+     * 当前窗口及窗口在日志中的起始偏移和长度
+     */
+    private ByteBuffer window;
+    private long windowStart;
+    private int windowLength;
+    /**
+     * 不支持只读视图时轮流使用的两个缓冲区，buffers[current]是当前窗口。
+     * ahead是正在预读的下一个窗口，读取是顺序的，所以它总是从当前窗口的结尾开始
+     */
+    private ByteBuffer[] buffers;
+    private int current;
+    private Future<ByteBuffer> ahead;
+    /**
+     * 下一个要读取的字节在日志中的偏移
+     */
+    private long position;
+
+    /**
+     * 当前批次的负载，反复使用
+     */
+    private ByteBuffer payload;
+    private long batchStart;
+    private long prevTxID;
+    /**
+     * 当前批次是没有分块的旧格式日志，负载中的位置和日志偏移一一对应
+     */
+    private boolean legacy;
+
+    /**
+     * 已经解码、还没有返回的记录
+     */
+    private LogRecords next;
+
+    public LogReader(LsnLogManager logManager, long start, long end) {
+        this.logManager = logManager;
+        if (logManager instanceof BufferLogManager) {
+            this.bufferLogManager = (BufferLogManager) logManager;
+        } else {
+            int size = (int) Math.min(READ_WINDOW, end - start);
+            this.buffers = new ByteBuffer[] { ByteBuffer.allocate(size), ByteBuffer.allocate(size) };
+        }
+        this.end = end;
+        this.window = ByteBuffer.allocate(0);
+        this.windowStart = start;
+        this.position = start;
+        this.payload = ByteBuffer.allocate(4096);
+        this.payload.limit(0);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        while (!payload.hasRemaining()) {
+            if (!readBatch()) {
+                return false;
+            }
+        }
+        int offset = payload.position();
+        next = LogRecords.changeToLogRecord(payload, prevTxID);
+        prevTxID = next.getTxID();
+        next.setOffset(legacy ? batchStart + offset : LogWriter.toLogOffset(batchStart, offset));
+        next.setBatchOffset(batchStart);
+        return true;
+    }
+
+    @Override
+    public LogRecords next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        LogRecords record = next;
+        next = null;
+        return record;
+    }
+
+    /**
+     * @return 已经读到的日志偏移，迭代结束后是最后一个完整批次之后的位置
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * 等待正在进行的预读结束，预读的结果和异常都丢弃
+     */
+    @Override
+    public void close() {
+        if (ahead != null) {
+            try {
+                awaitAhead();
+            } catch (RuntimeException e) {
+                // 预读的窗口已经不需要了
+            }
+        }
+    }
+
+    /**
+     * 读取下一个完整的批次到payload
+     * @return 日志已经读完时返回false
+     */
+    private boolean readBatch() {
+        while (end - position >= LogWriter.FIRST_HEADER) {
+            byte header = peek();
+            if (header == 0) {
+                readLegacyBatch();
+                return true;
+            }
+            if (header != LogWriter.CHUNK_FIRST) {
+                // 批次起点总是第一个块，撕裂的批次也只会在新批次的第一个块或日志结尾处结束，这里是日志损坏
+                throw new IllegalStateException("Expected the first chunk of a batch at " + position + ", found header " + header);
+            }
+            batchStart = position;
+            legacy = false;
+            position++;
+            int length = readInt();
+            payload.clear();
+            ensurePayload(length);
+            int got = Math.min(length, LogWriter.FIRST_PAYLOAD);
+            read(got);
+            boolean torn = false;
+            while (got < length) {
+                // 遇到日志结尾或者新批次的第一个块，说明这个批次没有写完
+                if (position >= end || peek() != LogWriter.CHUNK_NEXT) {
+                    torn = true;
+                    break;
+                }
+                position++;
+                int l = Math.min(length - got, LogWriter.NEXT_PAYLOAD);
+                read(l);
+                got += l;
+            }
+            if (!torn) {
+                payload.flip();
+                prevTxID = 0;
+                return true;
+            }
+        }
+        payload.limit(0);
+        position = end;
+        return false;
+    }
+
+    /**
+     * 把从position开始的一段连续的旧格式日志读作一个批次，到批次的第一个块或日志结尾为止。
+     * 旧格式的写日志和提交日志分别追加，只有放在同一个批次里提交日志才能和写日志匹配
+     */
+    private void readLegacyBatch() {
+        batchStart = position;
+        legacy = true;
+        payload.clear();
+        while (position < end && peek() == 0) {
+            if (end - position < LogRecords.LEGACY_HEADER) {
+                throw new IllegalStateException("Truncated legacy log record at " + position);
+            }
+            long recordStart = position;
+            ensurePayload(LogRecords.LEGACY_HEADER);
+            read(LogRecords.LEGACY_HEADER);
+            int size = payload.getInt(payload.position() - 4);
+            if (size < LogRecords.LEGACY_HEADER || size - LogRecords.LEGACY_HEADER > end - position) {
+                throw new IllegalStateException("Invalid legacy log record of " + size + " bytes at " + recordStart);
+            }
+            ensurePayload(size - LogRecords.LEGACY_HEADER);
+            read(size - LogRecords.LEGACY_HEADER);
+        }
+        payload.flip();
+        prevTxID = 0;
+    }
+
+    /**
+     * 保证payload还能再放下length个字节，扩容时保留已经读到的内容
+     */
+    private void ensurePayload(int length) {
+        if (payload.remaining() < length) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(payload.position() + length, payload.capacity() * 2));
+            payload.flip();
+            larger.put(payload);
+            payload = larger;
+        }
+    }
+
+    /**
+     * 保证position所在的字节已经在窗口中
+     */
+    private void fill() {
+        if (position >= windowStart + windowLength) {
+            windowStart = position;
+            if (bufferLogManager != null) {
+                window = bufferLogManager.readLogBuffer(windowStart, (int) Math.min(Integer.MAX_VALUE, end - windowStart));
+            } else {
+                window = nextWindow();
+            }
+            windowLength = window.limit();
+        }
+    }
+
+    /**
+     * @return 从windowStart开始的窗口，已经预读时等待预读完成。返回之前开始预读再下一个窗口
+     */
+    private ByteBuffer nextWindow() {
+        ByteBuffer next;
+        if (ahead != null) {
+            next = awaitAhead();
+            current ^= 1;
+        } else {
+            next = read(windowStart, buffers[current]);
+        }
+        long aheadStart = windowStart + next.limit();
+        if (aheadStart < end) {
+            ByteBuffer buffer = buffers[current ^ 1];
+            ahead = PREFETCHERS.submit(() -> read(aheadStart, buffer));
+        }
+        return next;
+    }
+
+    private ByteBuffer read(long start, ByteBuffer buffer) {
+        buffer.clear();
+        logManager.readLogRange(start, (int) Math.min(buffer.capacity(), end - start), buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * @return 预读的窗口，预读线程抛出的异常在这里重新抛出
+     */
+    private ByteBuffer awaitAhead() {
+        try {
+            return ahead.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            ahead = null;
+        }
+    }
+
+    private byte peek() {
+        fill();
+        return window.get((int) (position - windowStart));
+    }
+
+    private int readInt() {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | (peek() & 0xff);
+            position++;
+        }
+        return value;
+    }
+
+    /**
+     * 把length个字节复制到payload
+     */
+    private void read(int length) {
+        while (length > 0) {
+            fill();
+            int from = (int) (position - windowStart);
+            int l = Math.min(length, windowLength - from);
+            window.limit(from + l).position(from);
+            payload.put(window);
+            window.limit(windowLength);
+            position += l;
+            length -= l;
+        }
+    }
+}
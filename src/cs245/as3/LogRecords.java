@@ -4,15 +4,52 @@ import java.nio.ByteBuffer;
 
 /**
  * 日志记录
+ * <p>
+ * 紧凑格式：类型字节(1) + txID相对同一批次上一条日志的差值(zigzag varint)，
+ * 写日志再加上 键(zigzag varint) + 值长度(varint) + 值。
+ * 检查点日志：只有类型字节，标记检查点批次的结束。
+ * 检查点重写日志：类型字节 + 键(zigzag varint) + 原始tag(varint) + 值长度(varint) + 值。
+ * 检查点相关的日志不属于任何事务，不带txID。
+ * 类型字节的最高位COMPACT用来区分旧的定长格式，旧格式第一个字节是txID的最高字节，非负txID总是0。
+ * 类型字节带COMPRESSED标记时，值长度之后是压缩后的长度(varint) + LogCompressor压缩的值，值长度是原始长度。
+ * 写日志的类型字节带DELTA标记时是增量日志，值相对同一个键前面最近的完整写日志编码：
+ * 相同前缀长度(varint) + 相同后缀长度(varint) + 中间部分长度(varint) + 中间部分。
  */
 public class LogRecords {
 
+    /**
+     * 紧凑格式标记
+     */
+    public final static int COMPACT = 0x80;
+
+    /**
+     * 值已压缩标记
+     */
+    public final static int COMPRESSED = 0x40;
+
+    /**
+     * 增量日志标记
+     */
+    public final static int DELTA = 0x20;
+
+    /**
+     * 类型字节中表示日志类型的位
+     */
+    public final static int TYPE_MASK = 0x0f;
+
+    /**
+     * 旧的定长格式的日志头长度：txID(8) + 类型(4) + 日志大小(4)，日志大小包括日志头
+     */
+    public final static int LEGACY_HEADER = 16;
+
     /**
      * 1字节
      * 0：开始事务
      * 1：写事务
      * 2：提交事务
      * 3：回滚
+     * 4：检查点
+     * 5：检查点重写的未持久化写操作
      */
     private int type;
 
@@ -25,9 +62,25 @@ public class LogRecords {
     // 值
     private byte[] value;
 
-    // 日志大小 type+txID+size+key+value=4+8+4+8+x
+    // 检查点重写日志中写操作原始的tag
+    private long tag;
+
+    // 旧格式的日志大小 type+txID+size+key+value=4+8+4+8+x
     private int size;
 
+    // 读取日志时记录所在的日志偏移，不写入日志
+    private long offset;
+
+    // 读取日志时记录所在批次的起始偏移，不写入日志
+    private long batchOffset;
+
+    // 读取的增量日志的相同前缀和后缀长度，不是增量日志时为-1。还原之前value是中间部分
+    private int deltaPrefix = -1;
+    private int deltaSuffix;
+
+    // 增量日志还原时使用的完整写日志，不写入日志
+    private LogRecords base;
+
     public LogRecords(int type, long txID, long key, byte[] value) {
         this.type = type;
         this.txID = txID;
@@ -75,36 +128,252 @@ public class LogRecords {
         this.size = size;
     }
 
+    public long getTag() {
+        return tag;
+    }
+
+    public void setTag(long tag) {
+        this.tag = tag;
+    }
+
+    /**
+     * 日志是否带txID
+     */
+    public boolean hasTxID() {
+        return type < 4;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public void setOffset(long offset) {
+        this.offset = offset;
+    }
+
+    public long getBatchOffset() {
+        return batchOffset;
+    }
+
+    public void setBatchOffset(long batchOffset) {
+        this.batchOffset = batchOffset;
+    }
+
+    /**
+     * @return 是否是还没有还原的增量日志
+     */
+    public boolean isDelta() {
+        return deltaPrefix >= 0;
+    }
+
+    /**
+     * 用同一个键前面最近的完整写日志还原增量日志的值
+     */
+    public void resolveDelta(LogRecords base) {
+        byte[] baseValue = base.value;
+        byte[] resolved = new byte[deltaPrefix + value.length + deltaSuffix];
+        System.arraycopy(baseValue, 0, resolved, 0, deltaPrefix);
+        System.arraycopy(value, 0, resolved, deltaPrefix, value.length);
+        System.arraycopy(baseValue, baseValue.length - deltaSuffix, resolved, deltaPrefix + value.length, deltaSuffix);
+        this.value = resolved;
+        this.base = base;
+        this.deltaPrefix = -1;
+    }
+
+    /**
+     * @return 还原增量日志使用的完整写日志，不是增量日志时为null
+     */
+    public LogRecords getBase() {
+        return base;
+    }
+
+    /**
+     * 紧凑格式下日志的最大长度
+     */
     public int size() {
-        size = 16;
-        if (type == 1) {
-            size = size + 8 + value.length;
+        size = 1 + 10;
+        if (type == 1 || type == 5) {
+            size = size + 10 + 5 + value.length;
         }
         return size;
     }
 
     /**
-     * 将日志转换成byte[]
+     * 将日志以紧凑格式写入缓冲区
+     * @param prevTxID 同一批次上一条日志的txID，批次第一条日志为0
+     * @param compressor 值的压缩器，为null时不压缩
      */
-    public static byte[] changeToByte(LogRecords logRecords) {
-        // 分配内存
-        ByteBuffer record = ByteBuffer.allocate(128);
-        record.putLong(logRecords.txID);
-        record.putInt(logRecords.type);
-        record.putInt(logRecords.size());
+    public static void changeToByte(LogRecords logRecords, long prevTxID, ByteBuffer record, LogCompressor compressor) {
+        int start = record.position();
+        record.put((byte) (COMPACT | logRecords.type));
+        if (logRecords.hasTxID()) {
+            LogUtils.putVarLong(record, LogUtils.zigzag(logRecords.txID - prevTxID));
+        }
         if (logRecords.type == 1) {
-            record.putLong(logRecords.key);
-            record.put(logRecords.value);
+            LogUtils.putVarLong(record, LogUtils.zigzag(logRecords.key));
+            putValue(record, start, logRecords.value, compressor, compress(logRecords.value, compressor));
+        } else if (logRecords.type == 5) {
+            LogUtils.putVarLong(record, LogUtils.zigzag(logRecords.key));
+            LogUtils.putVarLong(record, logRecords.tag);
+            putValue(record, start, logRecords.value, compressor, compress(logRecords.value, compressor));
         }
-        byte[] result = record.array();
-        return result;
+    }
+
+    /**
+     * 紧凑格式写日志的最大长度
+     */
+    public static int writeSize(byte[] value) {
+        return 1 + 10 + 10 + 5 + value.length;
+    }
+
+    /**
+     * 不创建LogRecords对象，直接把写日志以紧凑格式写入缓冲区。
+     * base不为null并且相对base的增量日志比完整写日志（可能压缩）更短时写增量日志
+     * @param prevTxID 同一批次上一条日志的txID，批次第一条日志为0
+     * @param base 同一个键最近的完整写日志的值，为null时写完整写日志
+     * @param compressor 值的压缩器，为null时不压缩
+     * @return 是否写了增量日志
+     */
+    public static boolean putWrite(ByteBuffer record, long prevTxID, long txID, long key, byte[] value, byte[] base,
+                                   LogCompressor compressor) {
+        int start = record.position();
+        record.put((byte) (COMPACT | 1));
+        LogUtils.putVarLong(record, LogUtils.zigzag(txID - prevTxID));
+        LogUtils.putVarLong(record, LogUtils.zigzag(key));
+        int compressed = compress(value, compressor);
+        if (base != null) {
+            int prefix = commonPrefix(base, value);
+            int suffix = commonSuffix(base, value, prefix);
+            int middle = value.length - prefix - suffix;
+            int fullSize = LogUtils.varLongSize(value.length)
+                    + (compressed < 0 ? value.length : LogUtils.varLongSize(compressed) + compressed);
+            if (LogUtils.varLongSize(prefix) + LogUtils.varLongSize(suffix) + LogUtils.varLongSize(middle) + middle < fullSize) {
+                record.put(start, (byte) (COMPACT | DELTA | 1));
+                LogUtils.putVarLong(record, prefix);
+                LogUtils.putVarLong(record, suffix);
+                LogUtils.putVarLong(record, middle);
+                record.put(value, prefix, middle);
+                return true;
+            }
+        }
+        putValue(record, start, value, compressor, compressed);
+        return false;
+    }
+
+    private static int commonPrefix(byte[] base, byte[] value) {
+        int n = Math.min(base.length, value.length);
+        int i = 0;
+        while (i < n && base[i] == value[i]) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * 相同后缀的长度，不和相同前缀重叠
+     */
+    private static int commonSuffix(byte[] base, byte[] value, int prefix) {
+        int n = Math.min(base.length, value.length) - prefix;
+        int i = 0;
+        while (i < n && base[base.length - 1 - i] == value[value.length - 1 - i]) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * 不创建LogRecords对象，直接把提交日志以紧凑格式写入缓冲区
+     * @param prevTxID 同一批次上一条日志的txID，批次第一条日志为0
+     */
+    public static void putCommit(ByteBuffer record, long prevTxID, long txID) {
+        record.put((byte) (COMPACT | 2));
+        LogUtils.putVarLong(record, LogUtils.zigzag(txID - prevTxID));
+    }
+
+    /**
+     * 用compressor压缩值，结果留在compressor的输出中
+     * @return 压缩后的长度，不压缩或者压缩后不更短时返回-1
+     */
+    private static int compress(byte[] value, LogCompressor compressor) {
+        if (compressor == null || !compressor.accepts(value.length)) {
+            return -1;
+        }
+        int length = compressor.compress(value);
+        return length + LogUtils.varLongSize(length) < value.length ? length : -1;
+    }
+
+    /**
+     * 写值长度和值。compressed不小于0时写compressor中压缩的值，并在start处的类型字节上加COMPRESSED标记
+     */
+    private static void putValue(ByteBuffer record, int start, byte[] value, LogCompressor compressor, int compressed) {
+        LogUtils.putVarLong(record, value.length);
+        if (compressed >= 0) {
+            record.put(start, (byte) (record.get(start) | COMPRESSED));
+            LogUtils.putVarLong(record, compressed);
+            record.put(compressor.getOutput(), 0, compressed);
+        } else {
+            record.put(value);
+        }
+    }
+
+    /**
+     * 读值长度和值，compressed时解压
+     */
+    private static byte[] getValue(ByteBuffer buff, boolean compressed) {
+        byte[] value = new byte[(int) LogUtils.getVarLong(buff)];
+        if (compressed) {
+            int length = (int) LogUtils.getVarLong(buff);
+            LogCompressor.decompress(buff, length, value);
+        } else {
+            buff.get(value);
+        }
+        return value;
     }
 
     /**
      * 将byte[]转换成日志
      */
     public static LogRecords changeToLogRecord(byte[] recordBytes) {
-        ByteBuffer buff = ByteBuffer.wrap(recordBytes);
+        return changeToLogRecord(ByteBuffer.wrap(recordBytes), 0);
+    }
+
+    /**
+     * 从缓冲区当前位置读取一条日志，读取后缓冲区位置移动到下一条日志，自动识别紧凑格式和旧格式
+     * @param prevTxID 同一批次上一条日志的txID，批次第一条日志为0
+     */
+    public static LogRecords changeToLogRecord(ByteBuffer buff, long prevTxID) {
+        int first = buff.get(buff.position()) & 0xff;
+        if ((first & COMPACT) == 0) {
+            return changeLegacyToLogRecord(buff);
+        }
+        buff.get();
+        // 不带txID的日志沿用上一条日志的txID，保证差值编码连续
+        LogRecords record = new LogRecords(first & TYPE_MASK, prevTxID, -1, null);
+        boolean compressed = (first & COMPRESSED) != 0;
+        if (record.hasTxID()) {
+            record.txID = prevTxID + LogUtils.unzigzag(LogUtils.getVarLong(buff));
+        }
+        if (record.type == 1 && (first & DELTA) != 0) {
+            record.key = LogUtils.unzigzag(LogUtils.getVarLong(buff));
+            record.deltaPrefix = (int) LogUtils.getVarLong(buff);
+            record.deltaSuffix = (int) LogUtils.getVarLong(buff);
+            record.value = new byte[(int) LogUtils.getVarLong(buff)];
+            buff.get(record.value);
+        } else if (record.type == 1) {
+            record.key = LogUtils.unzigzag(LogUtils.getVarLong(buff));
+            record.value = getValue(buff, compressed);
+        } else if (record.type == 5) {
+            record.key = LogUtils.unzigzag(LogUtils.getVarLong(buff));
+            record.tag = LogUtils.getVarLong(buff);
+            record.value = getValue(buff, compressed);
+        }
+        return record;
+    }
+
+    /**
+     * 读取旧的定长格式日志
+     */
+    private static LogRecords changeLegacyToLogRecord(ByteBuffer buff) {
         long id=buff.getLong();
         LogRecords record=new LogRecords(buff.getInt(),id,-1,null);
         record.size=buff.getInt();
@@ -112,10 +381,8 @@ public class LogRecords {
             record.key=buff.getLong();
             int size=record.size-24;
             record.value=new byte[size];
-            for(int i=0;i<size;i++){
-                record.value[i]=buff.get();
-            }
+            buff.get(record.value);
         }
         return record;
     }
-}
\ No newline at end of file
+}
@@ -1,5 +1,7 @@
 package cs245.as3;
 
+import java.nio.ByteBuffer;
+
 public class LogUtils {
     public final static int sizeOffset=12;
     public int getLogSize(byte[] bytes){
@@ -8,4 +10,49 @@ public class LogUtils {
                 ((bytes[sizeOffset + 2] & 0xff) << 8) |
                 (bytes[sizeOffset + 3] & 0xff));
     }
+
+    /**
+     * varint编码：每字节7位，最高位表示后面还有字节
+     */
+    public static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * varint编码后的字节数
+     */
+    public static int varLongSize(long value) {
+        int size = 1;
+        while ((value & ~0x7fL) != 0) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+
+    public static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * zigzag编码，让绝对值小的负数也只占很少的字节
+     */
+    public static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    public static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
 }
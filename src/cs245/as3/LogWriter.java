@@ -0,0 +1,296 @@
+package cs245.as3;
+
+import java.nio.ByteBuffer;
+
+import cs245.as3.interfaces.LsnLogManager;
+
+/**
+ * 组提交日志写入器
+ * <p>
+ * 把一个或多个同时提交的事务的日志记录序列化成一段连续的字节流（一个批次），
+ * 再把字节流切分成完整的128字节块，用一次appendLogs把整个批次的块原子地追加到日志中，避免每条记录单独占用一次IO。
+ * <p>
+ * 块格式：每个块的第1个字节是块头；批次的第一个块为CHUNK_FIRST，后面跟4字节的批次负载长度，
+ * 其余块为CHUNK_NEXT。除了批次的最后一个块，其余块都恰好是128字节。
+ * 恢复时如果一个批次的块没有全部写入（崩溃），读到的下一个块会是新批次的CHUNK_FIRST或日志结尾，整个批次被丢弃。
+ * 记录可以跨越任意多个块，值的大小不受单个块的限制。
+ * <p>
+ * 写日志和提交日志直接序列化到复用的批次缓冲区，追加用的块数组和块数组的向量都缓存复用，
+ * 提交路径上不分配临时对象。复用块数组要求LogManager在appendLogs中复制传入的数据。
+ * 不小于压缩阈值的值用LogCompressor压缩，压缩后更短时才写压缩的值；调用者给出同一个键最近的完整值时，
+ * 相对它的增量日志更短就写增量日志。
+ */
+public class LogWriter {
+    /**
+     * 单次追加的最大长度
+     */
+    public final static int CHUNK_SIZE = 128;
+    /**
+     * 批次第一个块的块头
+     */
+    public final static byte CHUNK_FIRST = 1;
+    /**
+     * 批次后续块的块头
+     */
+    public final static byte CHUNK_NEXT = 2;
+    /**
+     * 第一个块的头部长度：块头+批次负载长度
+     */
+    public final static int FIRST_HEADER = 5;
+    /**
+     * 后续块的头部长度
+     */
+    public final static int NEXT_HEADER = 1;
+    /**
+     * 第一个块能容纳的负载
+     */
+    public final static int FIRST_PAYLOAD = CHUNK_SIZE - FIRST_HEADER;
+    /**
+     * 后续块能容纳的负载
+     */
+    public final static int NEXT_PAYLOAD = CHUNK_SIZE - NEXT_HEADER;
+    /**
+     * 批次缓冲区的初始容量；写过大值之后缓冲区超过MAX_RETAINED_CAPACITY时缩回初始容量
+     */
+    private final static int INITIAL_CAPACITY = 4096;
+    private final static int MAX_RETAINED_CAPACITY = 1 << 16;
+    private final static int MAX_RETAINED_CHUNKS = MAX_RETAINED_CAPACITY / CHUNK_SIZE;
+
+    private LsnLogManager logManager;
+
+    /**
+     * 当前批次待写入的字节流
+     */
+    private ByteBuffer pending;
+
+    /**
+     * 最后一个批次结束的日志偏移
+     */
+    private long tail;
+
+    /**
+     * 当前批次上一条日志的txID，用于txID差值编码
+     */
+    private long lastTxID;
+
+    /**
+     * 按长度缓存的不满128字节的块数组，chunks[n]的长度为n，只用作批次的最后一个块
+     */
+    private final byte[][] chunks = new byte[CHUNK_SIZE][];
+    /**
+     * 128字节的块数组，fullChunks[i]用作批次的第i个块；按块数缓存的向量，vectors[n]的长度为n。
+     * 只缓存不超过MAX_RETAINED_CAPACITY的批次用到的数组
+     */
+    private final byte[][] fullChunks = new byte[MAX_RETAINED_CHUNKS][];
+    private final byte[][][] vectors = new byte[MAX_RETAINED_CHUNKS + 1][][];
+
+    /**
+     * 值的压缩器
+     */
+    private final LogCompressor compressor;
+
+    /**
+     * 最近一次addWrite是否写了增量日志
+     */
+    private boolean lastWriteDelta;
+
+    /**
+     * 不压缩值的写入器，需要压缩时用setCompressionThreshold打开
+     */
+    public LogWriter(LsnLogManager logManager) {
+        this(logManager, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param compressionThreshold 尝试压缩的最小值长度，Integer.MAX_VALUE表示不压缩
+     */
+    public LogWriter(LsnLogManager logManager, int compressionThreshold) {
+        this.logManager = logManager;
+        this.compressor = new LogCompressor(compressionThreshold);
+        this.pending = ByteBuffer.allocate(INITIAL_CAPACITY);
+        this.tail = logManager.getLogEndLsn();
+    }
+
+    /**
+     * 把一条日志记录加入当前批次
+     * @return 记录在批次字节流中的位置，flush之后可以用toLogOffset换算成日志偏移
+     */
+    public int add(LogRecords record) {
+        ensureCapacity(record.size());
+        int position = pending.position();
+        LogRecords.changeToByte(record, lastTxID, pending, compressor);
+        if (record.hasTxID()) {
+            lastTxID = record.getTxID();
+        }
+        return position;
+    }
+
+    /**
+     * 把一条写日志加入当前批次，不创建LogRecords对象。base不为null并且增量日志更短时写增量日志，
+     * 之后可以用lastWriteIsDelta判断
+     * @param base 同一个键最近的完整写日志的值，为null时写完整写日志
+     * @return 记录在批次字节流中的位置
+     */
+    public int addWrite(long txID, long key, byte[] value, byte[] base) {
+        ensureCapacity(LogRecords.writeSize(value));
+        int position = pending.position();
+        lastWriteDelta = LogRecords.putWrite(pending, lastTxID, txID, key, value, base, compressor);
+        lastTxID = txID;
+        return position;
+    }
+
+    /**
+     * @return 最近一次addWrite是否写了增量日志
+     */
+    public boolean lastWriteIsDelta() {
+        return lastWriteDelta;
+    }
+
+    /**
+     * 把一条提交日志加入当前批次，不创建LogRecords对象
+     * @return 记录在批次字节流中的位置
+     */
+    public int addCommit(long txID) {
+        ensureCapacity(1 + 10);
+        int position = pending.position();
+        LogRecords.putCommit(pending, lastTxID, txID);
+        lastTxID = txID;
+        return position;
+    }
+
+    /**
+     * @param compressionThreshold 尝试压缩的最小值长度，Integer.MAX_VALUE表示不压缩
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        compressor.setThreshold(compressionThreshold);
+    }
+
+    /**
+     * 当前批次是否为空
+     */
+    public boolean isEmpty() {
+        return pending.position() == 0;
+    }
+
+    /**
+     * 把当前批次切分成128字节的块，一次原子地追加到日志。无论追加是否成功，批次都被清空
+     * @return 批次在日志中的起始偏移，批次为空时返回-1
+     */
+    public long flush() {
+        int length = pending.position();
+        if (length == 0) {
+            return -1;
+        }
+        byte[] stream = pending.array();
+        int batchLength = batchLength(length);
+        byte[][] vector = vector((batchLength + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        int k = 0;
+        int i = 0;
+        while (i < length) {
+            byte[] chunk;
+            if (i == 0) {
+                int l = Math.min(length, FIRST_PAYLOAD);
+                chunk = chunk(k, FIRST_HEADER + l);
+                chunk[0] = CHUNK_FIRST;
+                chunk[1] = (byte) (length >>> 24);
+                chunk[2] = (byte) (length >>> 16);
+                chunk[3] = (byte) (length >>> 8);
+                chunk[4] = (byte) length;
+                System.arraycopy(stream, 0, chunk, FIRST_HEADER, l);
+                i += l;
+            } else {
+                int l = Math.min(length - i, NEXT_PAYLOAD);
+                chunk = chunk(k, NEXT_HEADER + l);
+                chunk[0] = CHUNK_NEXT;
+                System.arraycopy(stream, i, chunk, NEXT_HEADER, l);
+                i += l;
+            }
+            vector[k++] = chunk;
+        }
+        long batchStart;
+        try {
+            batchStart = logManager.appendLogs(vector);
+        } finally {
+            // 追加失败时同样丢弃这个批次，失败的事务不能随下一个批次写入日志
+            if (pending.capacity() > MAX_RETAINED_CAPACITY) {
+                pending = ByteBuffer.allocate(INITIAL_CAPACITY);
+            } else {
+                pending.clear();
+            }
+            lastTxID = 0;
+        }
+        tail = batchStart + batchLength;
+        return batchStart;
+    }
+
+    /**
+     * @return 最后一个批次结束的日志偏移
+     */
+    public long getTail() {
+        return tail;
+    }
+
+    /**
+     * 把批次字节流中的位置换算成日志偏移
+     */
+    public static long toLogOffset(long batchStart, int position) {
+        if (position < FIRST_PAYLOAD) {
+            return batchStart + FIRST_HEADER + position;
+        }
+        int rest = position - FIRST_PAYLOAD;
+        return batchStart + CHUNK_SIZE + (long) (rest / NEXT_PAYLOAD) * CHUNK_SIZE + NEXT_HEADER + rest % NEXT_PAYLOAD;
+    }
+
+    /**
+     * 批次占用的日志长度
+     */
+    public static int batchLength(int payloadLength) {
+        if (payloadLength <= FIRST_PAYLOAD) {
+            return FIRST_HEADER + payloadLength;
+        }
+        int rest = payloadLength - FIRST_PAYLOAD;
+        return CHUNK_SIZE + (rest / NEXT_PAYLOAD) * CHUNK_SIZE + (rest % NEXT_PAYLOAD == 0 ? 0 : NEXT_HEADER + rest % NEXT_PAYLOAD);
+    }
+
+    /**
+     * @return 批次第index个块使用的长度为length的块数组。一个批次里只有最后一个块可能不满128字节，
+     * 所以同一个批次的块不会共用数组
+     */
+    private byte[] chunk(int index, int length) {
+        if (length < CHUNK_SIZE) {
+            if (chunks[length] == null) {
+                chunks[length] = new byte[length];
+            }
+            return chunks[length];
+        }
+        if (index >= MAX_RETAINED_CHUNKS) {
+            return new byte[CHUNK_SIZE];
+        }
+        if (fullChunks[index] == null) {
+            fullChunks[index] = new byte[CHUNK_SIZE];
+        }
+        return fullChunks[index];
+    }
+
+    /**
+     * @return 长度为count的复用向量
+     */
+    private byte[][] vector(int count) {
+        if (count > MAX_RETAINED_CHUNKS) {
+            return new byte[count][];
+        }
+        if (vectors[count] == null) {
+            vectors[count] = new byte[count][];
+        }
+        return vectors[count];
+    }
+
+    private void ensureCapacity(int size) {
+        if (pending.remaining() < size) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + size));
+            pending.flip();
+            bigger.put(pending);
+            pending = bigger;
+        }
+    }
+}
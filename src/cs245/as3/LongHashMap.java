@@ -0,0 +1,202 @@
+package cs245.as3;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * 以long为键的开放寻址哈希表
+ * <p>
+ * 键直接存放在long[]里，不需要把键装箱成Long，也不需要为每个键值对分配节点。
+ * 使用线性探测，删除时把后面的元素往前移，不使用墓碑标记。值不能为null，null表示空槽。
+ * <p>
+ * 遍历方式：
+ * <pre>
+ * for (int slot = map.nextSlot(0); slot &gt;= 0; slot = map.nextSlot(slot + 1)) {
+ *     long key = map.keyAt(slot);
+ *     V value = map.valueAt(slot);
+ * }
+ * </pre>
+ * 遍历过程中不能修改哈希表。非线程安全。
+ */
+public class LongHashMap<V> {
+    /**
+     * 最大装载因子
+     */
+    private final static float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int shift;
+    private int size;
+    private int threshold;
+
+    public LongHashMap() {
+        this(16);
+    }
+
+    public LongHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    /**
+     * 从HashMap中复制
+     */
+    public LongHashMap(Map<Long, V> map) {
+        this(map.size());
+        for (Map.Entry<Long, V> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * 64位混合哈希，结果的高位用来定位槽
+     */
+    static long mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+
+    private int slotOf(long key) {
+        return (int) (mix(key) >>> shift);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        for (int slot = slotOf(key); ; slot = (slot + 1) & mask) {
+            Object value = values[slot];
+            if (value == null) {
+                return null;
+            }
+            if (keys[slot] == key) {
+                return (V) value;
+            }
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return 之前的值，没有时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("null value");
+        }
+        for (int slot = slotOf(key); ; slot = (slot + 1) & mask) {
+            Object old = values[slot];
+            if (old == null) {
+                keys[slot] = key;
+                values[slot] = value;
+                if (++size > threshold) {
+                    rehash(values.length << 1);
+                }
+                return null;
+            }
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return (V) old;
+            }
+        }
+    }
+
+    /**
+     * @return 被删除的值，没有时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        for (int slot = slotOf(key); ; slot = (slot + 1) & mask) {
+            Object old = values[slot];
+            if (old == null) {
+                return null;
+            }
+            if (keys[slot] == key) {
+                shiftBack(slot);
+                size--;
+                return (V) old;
+            }
+        }
+    }
+
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(values, null);
+            size = 0;
+        }
+    }
+
+    /**
+     * @return 从slot开始的第一个非空槽，没有时返回-1
+     */
+    public int nextSlot(int slot) {
+        for (; slot < values.length; slot++) {
+            if (values[slot] != null) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    public long keyAt(int slot) {
+        return keys[slot];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V valueAt(int slot) {
+        return (V) values[slot];
+    }
+
+    /**
+     * 删除slot上的元素，并把同一探测链上后面的元素前移
+     */
+    private void shiftBack(int slot) {
+        int gap = slot;
+        for (int next = (gap + 1) & mask; values[next] != null; next = (next + 1) & mask) {
+            int home = slotOf(keys[next]);
+            // home不在(gap, next]的循环区间内时，元素可以移到gap
+            boolean stay = gap <= next ? (gap < home && home <= next) : (gap < home || home <= next);
+            if (!stay) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        values[gap] = null;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int slot = slotOf(oldKeys[i]);
+                while (values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package cs245.as3;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+
+import cs245.as3.interfaces.BufferLogManager;
+
+/**
+ * 基于内存映射文件的持久化日志
+ * <p>
+ * 日志按偏移切分成固定长度的段文件，每个段文件创建时就扩展到段长度并整个映射到内存。
+ * 追加直接复制到映射区域，appendLog在映射区域和元数据都force之后才返回，同时追加的线程合并force，方式和FileLogManager相同。
+ * readLogBuffer返回映射区域的只读视图，不复制数据，恢复时LogReader直接从视图解码，读取速度只受内存带宽限制。
+ * <p>
+ * 段文件是预先分配的，持久化的日志结尾只能从元数据得到，由LogDirectory管理。
+ * 截断时完全位于截断偏移之前的段放回空闲列表，需要新的段时把空闲的段文件改名为新的起始偏移，
+ * 继续使用原来的文件和映射，段文件循环使用，不需要重新分配和映射。空闲列表满了才删除段文件；
+ * Java不能主动解除映射，映射在没有引用之后由GC释放。复用的段里旧的内容在持久化结尾之后，重新打开时不会读到。
+ */
+public class MappedLogManager implements BufferLogManager, Closeable {
+    /**
+     * 默认的段长度
+     */
+    public final static int DEFAULT_SEGMENT_SIZE = 64 << 20;
+    /**
+     * 空闲列表最多保留的段数量
+     */
+    private final static int MAX_FREE_SEGMENTS = 2;
+
+    private static class Segment {
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        /**
+         * 段文件当前的路径，复用时改变
+         */
+        Path path;
+
+        Segment(FileChannel channel, MappedByteBuffer buffer, Path path) {
+            this.channel = channel;
+            this.buffer = buffer;
+            this.path = path;
+        }
+    }
+
+    private final LogDirectory directory;
+    private final int segmentSize;
+
+    /**
+     * 段的起始偏移到段，读取、追加和删除段时都在segments的锁内访问
+     */
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    /**
+     * 截断后等待复用的段，也在segments的锁内访问
+     */
+    private final ArrayDeque<Segment> free = new ArrayDeque<>();
+    private long created;
+
+    /**
+     * 追加的锁。end是已经写入的日志结尾，可能还没有force
+     */
+    private final Object appendLock = new Object();
+    private volatile long end;
+    /**
+     * 写入之后还没有force的段
+     */
+    private final ArrayList<Segment> unsynced = new ArrayList<>();
+
+    /**
+     * 组force的锁，force期间一直持有。durableEnd是已经持久化的日志结尾
+     */
+    private final Object syncLock = new Object();
+    private long durableEnd;
+    private long syncCount;
+
+    private volatile long truncationOffset;
+
+    public MappedLogManager(Path directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * 打开目录中的日志，目录不存在或为空时创建新日志
+     */
+    public MappedLogManager(Path directory, int segmentSize) {
+        this.segmentSize = segmentSize;
+        try {
+            this.directory = new LogDirectory(directory);
+            truncationOffset = this.directory.getTruncationOffset();
+            durableEnd = this.directory.getDurableEnd();
+            end = durableEnd;
+            openSegments();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public long getLogEndLsn() {
+        return end;
+    }
+
+    @Override
+    public byte[] readLog(long lsn, int size) {
+        checkRange(lsn, size);
+        byte[] record = new byte[size];
+        synchronized (segments) {
+            int done = 0;
+            while (done < size) {
+                long position = lsn + done;
+                Map.Entry<Long, Segment> segment = segments.floorEntry(position);
+                int n = (int) Math.min(size - done, segment.getKey() + segmentSize - position);
+                ByteBuffer view = segment.getValue().buffer.duplicate();
+                view.position((int) (position - segment.getKey()));
+                view.get(record, done, n);
+                done += n;
+            }
+        }
+        return record;
+    }
+
+    @Override
+    public ByteBuffer readLogBuffer(long lsn, int maxSize) {
+        checkRange(lsn, 1);
+        synchronized (segments) {
+            Map.Entry<Long, Segment> segment = segments.floorEntry(lsn);
+            int from = (int) (lsn - segment.getKey());
+            int n = (int) Math.min(Math.min(maxSize, end - lsn), segmentSize - from);
+            ByteBuffer view = segment.getValue().buffer.duplicate();
+            view.limit(from + n).position(from);
+            return view.slice().asReadOnlyBuffer();
+        }
+    }
+
+    @Override
+    public long appendLog(byte[] record) {
+        long prior;
+        long recordEnd;
+        try {
+            synchronized (appendLock) {
+                prior = end;
+                write(record);
+                recordEnd = end;
+            }
+            sync(recordEnd);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return prior;
+    }
+
+    /**
+     * 在一次追加锁内连续写入所有记录，只force一次，元数据中的日志结尾一次越过所有记录，崩溃后要么全部保留要么全部丢弃
+     */
+    @Override
+    public long appendLogs(byte[][] records) {
+        long prior;
+        long recordsEnd;
+        try {
+            synchronized (appendLock) {
+                prior = end;
+                for (byte[] record : records) {
+                    write(record);
+                }
+                recordsEnd = end;
+            }
+            if (recordsEnd > prior) {
+                sync(recordsEnd);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return prior;
+    }
+
+    @Override
+    public long getLogTruncationLsn() {
+        return truncationOffset;
+    }
+
+    @Override
+    public void setLogTruncationLsn(long lsn) {
+        if (lsn > end || lsn < truncationOffset) {
+            throw new IllegalArgumentException();
+        }
+        truncationOffset = lsn;
+        try {
+            ArrayList<Segment> obsolete = new ArrayList<>();
+            synchronized (segments) {
+                // 只回收整个位于截断偏移之前的段，正在追加的最后一个段总是保留
+                while (segments.size() > 1 && segments.firstKey() + segmentSize <= lsn) {
+                    obsolete.add(segments.pollFirstEntry().getValue());
+                }
+            }
+            if (obsolete.isEmpty()) {
+                return;
+            }
+            // 复用或删除段文件之前先持久化截断偏移，重新打开时不会从已回收的段开始恢复
+            synchronized (syncLock) {
+                directory.write(truncationOffset, durableEnd);
+            }
+            synchronized (segments) {
+                for (Segment segment : obsolete) {
+                    if (free.size() < MAX_FREE_SEGMENTS) {
+                        free.add(segment);
+                    } else {
+                        segment.channel.close();
+                        Files.deleteIfExists(segment.path);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return force的次数，每次force可以持久化多个线程的追加
+     */
+    public long getSyncCount() {
+        synchronized (syncLock) {
+            return syncCount;
+        }
+    }
+
+    /**
+     * @return 一共创建过的段文件数量，复用的段不计入
+     */
+    public long getCreatedSegmentCount() {
+        synchronized (segments) {
+            return created;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (segments) {
+            for (Segment segment : segments.values()) {
+                segment.channel.close();
+            }
+            segments.clear();
+            // 空闲的段位于截断偏移之前，重新打开时删除
+            for (Segment segment : free) {
+                segment.channel.close();
+            }
+            free.clear();
+        }
+        directory.close();
+    }
+
+    private void checkRange(long lsn, int size) {
+        if (lsn < truncationOffset || lsn + size > end) {
+            throw new ArrayIndexOutOfBoundsException("Offset " + (lsn + size) + " invalid: log start offset is "
+                    + truncationOffset + ", log end offset is " + end);
+        }
+    }
+
+    /**
+     * 把记录写到日志结尾并推进end，追加可能跨越段的边界。在appendLock内调用
+     */
+    private void write(byte[] record) throws IOException {
+        int done = 0;
+        while (done < record.length) {
+            long position = end + done;
+            long segmentStart = position - position % segmentSize;
+            Segment segment = segment(segmentStart);
+            int n = (int) Math.min(record.length - done, segmentStart + segmentSize - position);
+            ByteBuffer view = segment.buffer.duplicate();
+            view.position((int) (position - segmentStart));
+            view.put(record, done, n);
+            if (!unsynced.contains(segment)) {
+                unsynced.add(segment);
+            }
+            done += n;
+        }
+        end += record.length;
+    }
+
+    /**
+     * 等待日志持久化到recordEnd。拿到锁时如果还没有持久化，由当前线程force到当前的日志结尾，
+     * 等待锁期间到达的追加也一起持久化
+     */
+    private void sync(long recordEnd) throws IOException {
+        synchronized (syncLock) {
+            if (durableEnd >= recordEnd) {
+                return;
+            }
+            long target;
+            Segment[] dirty;
+            synchronized (appendLock) {
+                target = end;
+                dirty = unsynced.toArray(new Segment[0]);
+                unsynced.clear();
+            }
+            // 已经因为截断被删除的段仍然映射着，force无害
+            for (Segment segment : dirty) {
+                segment.buffer.force();
+            }
+            directory.write(truncationOffset, target);
+            durableEnd = target;
+            syncCount++;
+        }
+    }
+
+    /**
+     * 映射已有的段，删除截断偏移之前的段和持久化结尾之后的段
+     */
+    private void openSegments() throws IOException {
+        for (Map.Entry<Long, Path> file : directory.segmentFiles().entrySet()) {
+            long start = file.getKey();
+            if (start >= end || (start + segmentSize <= truncationOffset && start + segmentSize < end)) {
+                Files.delete(file.getValue());
+                continue;
+            }
+            segments.put(start, map(file.getValue()));
+        }
+    }
+
+    /**
+     * @return 从segmentStart开始的段，不存在时优先复用空闲的段，没有时创建。在appendLock内调用
+     */
+    private Segment segment(long segmentStart) throws IOException {
+        synchronized (segments) {
+            Segment segment = segments.get(segmentStart);
+            if (segment == null) {
+                Path path = directory.segmentPath(segmentStart);
+                segment = free.poll();
+                if (segment != null) {
+                    Files.move(segment.path, path, StandardCopyOption.ATOMIC_MOVE);
+                    segment.path = path;
+                } else {
+                    segment = map(path);
+                    created++;
+                }
+                segments.put(segmentStart, segment);
+            }
+            return segment;
+        }
+    }
+
+    /**
+     * 打开段文件，扩展到段长度并映射
+     */
+    private Segment map(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new Segment(channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize), path);
+    }
+}
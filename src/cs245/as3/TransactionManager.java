@@ -1,9 +1,13 @@
 package cs245.as3;
 
-import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinTask;
 
 import cs245.as3.interfaces.LogManager;
+import cs245.as3.interfaces.LsnLogManager;
 import cs245.as3.interfaces.StorageManager;
 import cs245.as3.interfaces.StorageManager.TaggedValue;
 
@@ -14,124 +18,345 @@ import cs245.as3.interfaces.StorageManager.TaggedValue;
  * Feel free to replace any of the data structures in your implementation, though the instructor solution includes
  * the same data structures (with additional fields) and uses the same strategy of buffering writes until commit.
  * <p>
- * Your implementation need not be threadsafe, i.e. no methods of TransactionManager are ever called concurrently.
+ * This implementation is threadsafe: different transactions may be served from different threads concurrently,
+ * as long as the calls for a single transaction do not overlap. Commits and persistence callbacks are ordered by a
+ * short log-ordering section; reads and writes before commit take no global lock.
  * <p>
  * You can assume that the constructor and initAndRecover() are both called before any of the other methods.
  */
 
 public class TransactionManager {
     /**
-     * 写入数据键值对
+     * 键最新的未持久化版本
      */
-    class WritesetEntry {
-        public long key;
-        public byte[] value;
+    static class DirtyVersion {
+        // 写日志的偏移，也是交给存储的tag
+        long tag;
+        // 这个版本当前在日志中的位置，被检查点重写后指向重写日志
+        long logOffset;
+        // 这个版本是增量日志时，还原它需要的完整写日志的偏移，否则为-1。完整写日志一直留在日志中
+        long baseOffset = -1;
 
-        public WritesetEntry(long key, byte[] value) {
-            this.key = key;
-            this.value = value;
+        DirtyVersion(long tag, long logOffset) {
+            this.tag = tag;
+            this.logOffset = logOffset;
         }
     }
 
     /**
-     * Holds the latest value for each key.
-     * 每个键最近的值
+     * 等待写入日志的提交
      */
-    private HashMap<Long, TaggedValue> latestValues;
+    static class PendingCommit {
+        long txID;
+        LongHashMap<byte[]> writeset;
+        // 同步提交时为null
+        CompletableFuture<Long> future;
+        // 写日志和提交日志在批次中的位置，以及写日志是否是增量日志，数组可以复用
+        int[] positions;
+        boolean[] deltas;
+        int commitPosition;
+        // 提交日志的偏移
+        long lsn;
+
+        PendingCommit(long txID, LongHashMap<byte[]> writeset, CompletableFuture<Long> future) {
+            this.txID = txID;
+            this.writeset = writeset;
+            this.future = future;
+        }
+
+        void reset(long txID, LongHashMap<byte[]> writeset) {
+            this.txID = txID;
+            this.writeset = writeset;
+        }
+    }
+
     /**
-     * Hold on to writesets until commit.
-     * 存储提交之前的写操作
+     * 上一个检查点结束之后至少写入多长的日志才写下一个检查点
      */
-    private HashMap<Long, ArrayList<WritesetEntry>> writesets;
-
+    public final static int CHECKPOINT_INTERVAL = 16384;
+    /**
+     * 检查点之间的日志长度至少是上一个检查点批次长度的这个倍数，重写的日志不超过前台日志的1/CHECKPOINT_RELOG_FACTOR
+     */
+    public final static int CHECKPOINT_RELOG_FACTOR = 2;
+    /**
+     * 需要重做的写操作不少于这个数量时并行重做
+     */
+    public final static int PARALLEL_REDO_THRESHOLD = 4096;
+    /**
+     * 写集合池的容量，以及可以回收的写集合的最大键数，过大的哈希表清空代价高，不回收
+     */
+    private final static int WRITESET_POOL_SIZE = 64;
+    private final static int MAX_POOLED_WRITESET = 64;
+    /**
+     * 复用的DirtyVersion的最大数量
+     */
+    private final static int FREE_VERSIONS_SIZE = 1024;
+    /**
+     * 运行写日志任务的守护线程池。队列为空时任务立即结束，空闲线程不再引用任何事务管理器
+     */
+    private final static ExecutorService FLUSHERS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "log-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /**
+     * Holds the latest value for each key.
+     * 每个键最近的值，恢复时按段并行重做
+     */
+    private ConcurrentLongHashMap<TaggedValue> latestValues;
     /**
-     * 事务集合
+     * Hold on to writesets until commit.
+     * 存储提交之前的写操作，同一个键只保留最后写入的值，提交时每个键只写一条日志
      */
-    private HashMap<Long, ArrayList<LogRecords>> transactionsets;
+    private ConcurrentLongHashMap<LongHashMap<byte[]>> writesets;
 
     /**
      * 日志控制器
      */
-    private LogManager logManager;
+    private LsnLogManager logManager;
     /**
      * 存储控制器
      */
     private StorageManager storageManager;
 
     /**
-     * 定义工具类
+     * 组提交日志写入器
+     */
+    private LogWriter logWriter;
+
+    /**
+     * 日志顺序锁。写日志、截断跟踪、未持久化版本和检查点都在这个锁内修改，
+     * 同一个键的latestValues和queueWrite也因此按日志顺序更新
+     */
+    private final Object logLock = new Object();
+
+    /**
+     * 等待后台写日志线程处理的异步提交，以及写日志线程是否在运行，由commitQueue自身的锁保护
+     */
+    private final ArrayDeque<PendingCommit> commitQueue = new ArrayDeque<>();
+    private boolean flusherRunning;
+
+    /**
+     * 同步提交复用的提交组，只在日志顺序锁内使用
+     */
+    private final ArrayList<PendingCommit> syncGroup = new ArrayList<>();
+    private final PendingCommit syncCommit = new PendingCommit(0, null, null);
+
+    /**
+     * 回收的写集合，事务结束后清空复用，避免每个事务新建哈希表。由writesetPool自身的锁保护
+     */
+    private final ArrayDeque<LongHashMap<byte[]>> writesetPool = new ArrayDeque<>();
+
+    /**
+     * 已经持久化、可以复用的DirtyVersion，只在日志顺序锁内使用
+     */
+    private final ArrayDeque<DirtyVersion> freeVersions = new ArrayDeque<>();
+
+    /**
+     * 每个批次未持久化的写操作数量，日志只能截断到批次起点
+     */
+    private TruncationTracker tracker;
+
+    /**
+     * 每个键最新的未持久化版本。只有最新版本需要留在日志里，被新版本覆盖的旧版本不再阻止日志截断
      */
-    private LogUtils util;
+    private LongHashMap<DirtyVersion> dirty;
 
     /**
-     * 单条日志最大长度
+     * 上一个检查点批次的起始偏移和结束偏移
      */
-    public final static int maxLength = 128;
+    private long lastCheckpoint;
+    private long checkpointEnd;
+
     /**
-     * 日志起始位置
+     * 未持久化的键最近一次写入完整写日志的值，同一个键之后的写操作可以相对它写增量日志。
+     * 键持久化、写日志失败或者写检查点时清除，之后的写操作重新写完整写日志。只在日志顺序锁内使用
      */
-    public final static int begin = 16;
+    private LongHashMap<byte[]> deltaBases;
 
     /**
-     * 存储日志大小的小根堆
+     * 写日志时尝试压缩的最小值长度
      */
-    private PriorityQueue<Long> pq;
+    private int compressionThreshold = LogCompressor.DEFAULT_THRESHOLD;
 
     public TransactionManager() {
-        writesets = new HashMap<>();
+        writesets = new ConcurrentLongHashMap<>();
         //see initAndRecover
         latestValues = null;
-        util = new LogUtils();
-        pq = new PriorityQueue<>();
-        transactionsets = new HashMap<Long, ArrayList<LogRecords>>();
+        tracker = new TruncationTracker();
+        dirty = new LongHashMap<>();
+        deltaBases = new LongHashMap<>();
     }
 
     /**
      * Prepare the transaction manager to serve operations.
      * At this time you should detect whether the StorageManager is inconsistent and recover it.
      */
-    public void initAndRecover(StorageManager sm, LogManager lm) {
+    public void initAndRecover(StorageManager sm, LogManager logManager) {
+        // 内部都使用64位的日志序列号，只支持int偏移的LogManager经过包装
+        LsnLogManager lm = LogManagerAdapter.of(logManager);
         this.storageManager = sm;
         this.logManager = lm;
-        latestValues = sm.readStoredTable();
-        // 日志列表
-        ArrayList<LogRecords> logRecordsList = new ArrayList<>();
-
-        // 提交序号
-        HashSet<Long> commitIdx = new HashSet<Long>();
-        ArrayList<Integer> commitIdxList = new ArrayList<>();
-        // 从日志当前偏移量到日志结尾，磁盘中读取数据
-        for (int idx = lm.getLogTruncationOffset(); idx < lm.getLogEndOffset(); ) {
-            // 读取当前位置的字节数组
-            // 每次读取16字节大小的日志
-            byte[] bytes = lm.readLogRecord(idx, begin);
-            int size = util.getLogSize(bytes);
-            ByteBuffer buffer = ByteBuffer.allocate(size);
-            // 往内存中添加数据
-            for (int i = 0; i < size; i += maxLength) {
-                int l = Math.min(size-i,maxLength);
-                buffer.put(lm.readLogRecord(idx+i,l));
+        latestValues = new ConcurrentLongHashMap<>();
+        for (Map.Entry<Long, TaggedValue> entry : sm.readStoredTable().entrySet()) {
+            latestValues.put(entry.getKey(), entry.getValue());
+        }
+        // 从截断位置开始扫描，截断位置之前的批次不再需要重做
+        lastCheckpoint = lm.getLogTruncationLsn();
+        checkpointEnd = lastCheckpoint;
+        // 还没有读到提交日志的事务的写操作，同一个事务的日志都在同一个批次里，所以这里只有正在读取的批次中的事务
+        LongHashMap<ArrayList<LogRecords>> pendingWrites = new LongHashMap<>();
+        // 每个键已提交的最终版本，内存只和键的数量有关，与日志长度无关
+        LongHashMap<LogRecords> finalVersions = new LongHashMap<>();
+        // 每个键最近的完整写日志，用来还原增量日志。检查点之后写日志时不再以之前的完整写日志为基础，
+        // 所以读到检查点日志时清空，只保留上一个检查点日志之后写过的键
+        LongHashMap<LogRecords> lastFull = new LongHashMap<>();
+
+        // 从日志当前偏移量到日志结尾顺序读取，每个字节只读一次，不保存整个日志
+        // 日志不支持只读视图时后台预读下一个窗口，提前结束时close等待预读完成
+        try (LogReader reader = new LogReader(lm, lm.getLogTruncationLsn(), lm.getLogEndLsn())) {
+            long batch = -1;
+            while (reader.hasNext()) {
+                LogRecords lr = reader.next();
+                if (lr.getBatchOffset() != batch) {
+                    // 新批次开始，上一个批次中没有提交的写操作不会再提交
+                    batch = lr.getBatchOffset();
+                    pendingWrites.clear();
+                }
+                if (lr.isDelta()) {
+                    // 完整写日志已经被截断时，这个增量日志对应的版本一定已经持久化，重做时会跳过
+                    LogRecords base = lastFull.get(lr.getKey());
+                    if (base != null) {
+                        lr.resolveDelta(base);
+                    } else {
+                        lr.setValue(null);
+                    }
+                } else if (lr.getType() == 1 || lr.getType() == 5) {
+                    lastFull.put(lr.getKey(), lr);
+                }
+                if (lr.getType() == 1) {
+                    ArrayList<LogRecords> writes = pendingWrites.get(lr.getTxID());
+                    if (writes == null) {
+                        writes = new ArrayList<>();
+                        pendingWrites.put(lr.getTxID(), writes);
+                    }
+                    writes.add(lr);
+                } else if (lr.getType() == 2) {
+                    // 事务提交，写操作成为对应键的最新版本
+                    ArrayList<LogRecords> writes = pendingWrites.remove(lr.getTxID());
+                    if (writes != null) {
+                        for (LogRecords w : writes) {
+                            finalVersions.put(w.getKey(), w);
+                        }
+                    }
+                } else if (lr.getType() == 5) {
+                    // 检查点重写的写操作和检查点在同一个批次，总是有效的
+                    finalVersions.put(lr.getKey(), lr);
+                } else if (lr.getType() == 4) {
+                    // 检查点日志是检查点批次的最后一条记录，恢复后的检查点间隔从这个批次开始计算
+                    lastCheckpoint = lr.getBatchOffset();
+                    checkpointEnd = lr.getOffset();
+                    lastFull.clear();
+                }
             }
-            byte[] recordBytes = buffer.array();
-            // 将字节数组转换成日志记录
-            LogRecords record = LogRecords.changeToLogRecord(recordBytes);
-            logRecordsList.add(record);
-            // 提交日志
-            if (record.getType() == 2) {
-                commitIdx.add(record.getTxID());
+        }
+        logWriter = new LogWriter(lm, compressionThreshold);
+
+        // 重做：按日志顺序重做每个键的最终版本，已经持久化到这个版本或更新版本的键跳过
+        LogRecords[] redo = new LogRecords[finalVersions.size()];
+        int n = 0;
+        for (int slot = finalVersions.nextSlot(0); slot >= 0; slot = finalVersions.nextSlot(slot + 1)) {
+            redo[n++] = finalVersions.valueAt(slot);
+        }
+        Arrays.sort(redo, Comparator.comparingLong(LogRecords::getOffset));
+        boolean[] applied = new boolean[redo.length];
+        if (redo.length < PARALLEL_REDO_THRESHOLD) {
+            redoPartition(redo, null, redo.length, applied);
+        } else {
+            // 按键所在的段分区，每个分区内保持日志顺序，不同分区的键互不相同，可以并发重做
+            int partitions = latestValues.stripeCount();
+            int[] counts = new int[partitions];
+            for (LogRecords lr : redo) {
+                counts[latestValues.stripeOf(lr.getKey())]++;
+            }
+            int[][] indexes = new int[partitions][];
+            for (int p = 0; p < partitions; p++) {
+                indexes[p] = new int[counts[p]];
+                counts[p] = 0;
+            }
+            for (int i = 0; i < redo.length; i++) {
+                int p = latestValues.stripeOf(redo[i].getKey());
+                indexes[p][counts[p]++] = i;
+            }
+            ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (int p = 0; p < partitions; p++) {
+                int[] partition = indexes[p];
+                if (partition.length > 0) {
+                    tasks.add(ForkJoinTask.adapt(() -> redoPartition(redo, partition, partition.length, applied)));
+                }
+            }
+            ForkJoinTask.invokeAll(tasks);
+        }
+        // 未持久化的版本和增量版本依赖的完整写日志按批次顺序登记，截断跟踪要求批次起点递增
+        long[] pins = new long[2 * redo.length];
+        int pinned = 0;
+        for (int i = 0; i < redo.length; i++) {
+            if (applied[i]) {
+                LogRecords lr = redo[i];
+                DirtyVersion version = new DirtyVersion(redoTag(lr), lr.getOffset());
+                pins[pinned++] = lr.getBatchOffset();
+                if (lr.getBase() != null) {
+                    version.baseOffset = lr.getBase().getOffset();
+                    pins[pinned++] = lr.getBase().getBatchOffset();
+                }
+                dirty.put(lr.getKey(), version);
+            }
+        }
+        Arrays.sort(pins, 0, pinned);
+        for (int i = 0; i < pinned; i++) {
+            tracker.addWrite(pins[i]);
+        }
+        truncate();
+    }
+
+    /**
+     * 按顺序重做redo中的一部分写操作，已经持久化到这个版本或更新版本的键跳过
+     * @param indexes 要重做的下标，为null时重做前length个
+     * @param applied 标记实际重做的写操作
+     */
+    private void redoPartition(LogRecords[] redo, int[] indexes, int length, boolean[] applied) {
+        for (int j = 0; j < length; j++) {
+            int i = indexes == null ? j : indexes[j];
+            LogRecords lr = redo[i];
+            long tag = redoTag(lr);
+            TaggedValue stored = latestValues.get(lr.getKey());
+            if (stored != null && stored.tag >= tag) {
+                continue;
             }
-            idx += record.size();
-            commitIdxList.add(idx);
-        }
-
-        // 持久化：对提交的事务的日志重做，并持久化写入
-        Iterator<Integer> iterator = commitIdxList.iterator();
-        for (LogRecords lr : logRecordsList) {
-            if(commitIdx.contains(lr.getTxID()) && lr.getType() == 1){
-                long tag = iterator.next();
-                pq.add(tag);
-                latestValues.put(lr.getKey(), new TaggedValue(tag,lr.getValue()));
-                sm.queueWrite(lr.getKey(), tag, lr.getValue());
+            if (lr.getValue() == null) {
+                throw new IllegalStateException("Missing full write record for delta at " + lr.getOffset());
+            }
+            latestValues.put(lr.getKey(), new TaggedValue(tag, lr.getValue()));
+            storageManager.queueWrite(lr.getKey(), tag, lr.getValue());
+            applied[i] = true;
+        }
+    }
+
+    /**
+     * 重做写操作使用的tag，检查点重写的日志使用原始写日志的偏移
+     */
+    private static long redoTag(LogRecords lr) {
+        return lr.getType() == 5 ? lr.getTag() : lr.getOffset();
+    }
+
+    /**
+     * 设置写日志时尝试压缩的最小值长度，Integer.MAX_VALUE表示不压缩。恢复时总是能读取压缩和未压缩的日志
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        synchronized (logLock) {
+            this.compressionThreshold = compressionThreshold;
+            if (logWriter != null) {
+                logWriter.setCompressionThreshold(compressionThreshold);
             }
         }
     }
@@ -141,9 +366,8 @@ public class TransactionManager {
      * 为开启一个新的事务，接口需要确保分配的txID单调递增（即使在系统crash后，仍需满足该特性）
      */
     public void start(long txID) {
-        // TODO: Not implemented for non-durable transactions, you should implement this
-        // 往事务集合中添加一条日志记录集合
-        transactionsets.put(txID, new ArrayList<LogRecords>());
+        // 事务的写集合
+        writesets.put(txID, newWriteset());
     }
 
     /**
@@ -164,20 +388,18 @@ public class TransactionManager {
      */
     public void write(long txID, long key, byte[] value) {
         // 根据事务ID获取写集合
-        // get函数：获取指定 key 对应对 value
-        ArrayList<WritesetEntry> writeset = writesets.get(txID);
+        // 写集合只被事务自己的线程访问，不需要加锁
+        LongHashMap<byte[]> writeset = writesets.get(txID);
         if (writeset == null) {
-            writeset = new ArrayList<>();
-            writesets.put(txID, writeset);
-        }
-        // 添加一个写操作
-        writeset.add(new WritesetEntry(key, value));
-        // 创建一个新的日志，类型为写操作
-        LogRecords currentLogRecords = new LogRecords(1, txID, key, value);
-        // 追加日志长度
-        currentLogRecords.setSize(16 + 8 + value.length);
-        // 把日志添加到当前事务集合
-        transactionsets.get(txID).add(currentLogRecords);
+            writeset = newWriteset();
+            LongHashMap<byte[]> existing = writesets.putIfAbsent(txID, writeset);
+            if (existing != null) {
+                recycle(writeset);
+                writeset = existing;
+            }
+        }
+        // 同一个键重复写入时覆盖之前的值
+        writeset.put(key, value);
     }
 
     /**
@@ -185,66 +407,307 @@ public class TransactionManager {
      * 提交一个事务，使该事务写入的数据被后续的read()操作读取
      */
     public void commit(long txID) {
-        // 创建提交日志，并添加到事务集合中
-        LogRecords commitRecord = new LogRecords(2, txID, -1, null);
-        transactionsets.get(txID).add(commitRecord);
-
-        // 存储键和日志大小
-        HashMap<Long, Long> tempKey = new HashMap<Long, Long>();
-        for (LogRecords record : transactionsets.get(txID)) {
-            // 如果是写操作的话,添加到集合中
-            if (record.getType() == 1) {
-                long logSize = 0;
-                // 将日志转换为byte数组，写磁盘
-                byte[] bytes = LogRecords.changeToByte(record);
-                int size = record.size();
-                // 将字节数组保存到缓冲区
-                ByteBuffer buffer = ByteBuffer.wrap(bytes);
-                for (int i = 0; i < size; i += maxLength) {
-                    int length = Math.min(size - i, maxLength);
-                    byte[] temp = new byte[length];
-                    //从数组i下标开始（包含），读取length长度缓存到数组temp
-                    buffer.get(temp, i, length);
-                    logSize = logManager.appendLogRecord(temp);
+        LongHashMap<byte[]> writeset = writesets.remove(txID);
+        // 只读事务不需要写日志
+        if (writeset == null || writeset.isEmpty()) {
+            recycle(writeset);
+            return;
+        }
+        // 调用线程自己写日志，顺便带上排队中的异步提交，崩溃异常直接抛给调用者。
+        // 没有异步提交时只使用复用的提交组，不分配对象
+        ArrayList<PendingCommit> async = null;
+        synchronized (logLock) {
+            ArrayList<PendingCommit> group = syncGroup;
+            group.clear();
+            drainCommitQueue(group);
+            if (!group.isEmpty()) {
+                async = new ArrayList<>(group);
+            }
+            syncCommit.reset(txID, writeset);
+            group.add(syncCommit);
+            try {
+                commitGroup(group);
+            } finally {
+                group.clear();
+            }
+            checkpointAfterCommit();
+        }
+        if (async != null) {
+            completeGroup(async);
+        }
+    }
+
+    /**
+     * 异步提交一个事务。事务的日志由后台写日志线程和其他排队的事务一起写入同一个批次，
+     * 批次写入日志后事务的写操作才对read()可见，返回的future以提交日志的偏移完成。
+     * 写日志失败时future以对应的异常完成。只读事务不写日志，future立即以-1完成。
+     */
+    public CompletableFuture<Long> commitAsync(long txID) {
+        LongHashMap<byte[]> writeset = writesets.remove(txID);
+        if (writeset == null || writeset.isEmpty()) {
+            recycle(writeset);
+            return CompletableFuture.completedFuture(-1L);
+        }
+        PendingCommit pending = new PendingCommit(txID, writeset, new CompletableFuture<>());
+        synchronized (commitQueue) {
+            commitQueue.add(pending);
+            // 写日志任务按需启动，队列为空时结束
+            if (!flusherRunning) {
+                flusherRunning = true;
+                FLUSHERS.execute(this::flushLoop);
+            }
+        }
+        return pending.future;
+    }
+
+    /**
+     * 后台写日志任务：每次把排队的所有异步提交写成一个批次，队列为空时结束
+     */
+    private void flushLoop() {
+        while (true) {
+            synchronized (commitQueue) {
+                if (commitQueue.isEmpty()) {
+                    flusherRunning = false;
+                    return;
+                }
+            }
+            ArrayList<PendingCommit> group = new ArrayList<>();
+            try {
+                synchronized (logLock) {
+                    drainCommitQueue(group);
+                    if (!group.isEmpty()) {
+                        commitGroup(group);
+                        checkpointAfterCommit();
+                    }
+                }
+            } catch (RuntimeException e) {
+                // 等待的future已经以异常完成
+                continue;
+            }
+            completeGroup(group);
+        }
+    }
+
+    /**
+     * 取出所有排队的异步提交，在日志顺序锁内调用
+     */
+    private void drainCommitQueue(ArrayList<PendingCommit> group) {
+        synchronized (commitQueue) {
+            while (!commitQueue.isEmpty()) {
+                group.add(commitQueue.poll());
+            }
+        }
+    }
+
+    /**
+     * 在日志顺序锁内把一组事务写成一个批次并让它们的写操作可见。
+     * 写日志失败时组内的异步提交以异常完成，异常继续抛出
+     */
+    private void commitGroup(ArrayList<PendingCommit> group) {
+        // 把所有事务的日志写入同一个批次，记录每条写日志在批次中的位置
+        for (PendingCommit pending : group) {
+            LongHashMap<byte[]> writeset = pending.writeset;
+            if (pending.positions == null || pending.positions.length < writeset.size()) {
+                pending.positions = new int[Math.max(writeset.size(), 8)];
+                pending.deltas = new boolean[pending.positions.length];
+            }
+            int i = 0;
+            for (int slot = writeset.nextSlot(0); slot >= 0; slot = writeset.nextSlot(slot + 1)) {
+                long key = writeset.keyAt(slot);
+                byte[] value = writeset.valueAt(slot);
+                // 键还没有持久化时相对最近的完整写日志写增量日志，更短时才使用
+                pending.positions[i] = logWriter.addWrite(pending.txID, key, value, deltaBases.get(key));
+                pending.deltas[i] = logWriter.lastWriteIsDelta();
+                if (!pending.deltas[i]) {
+                    deltaBases.put(key, value);
                 }
-                tempKey.put(record.getKey(), logSize);
-            } else {
-                //否则的话直接追加LogRecord，提交等操作
-                byte[] bytes = LogRecords.changeToByte(record);
-                int size = record.size();
-                ByteBuffer buffer = ByteBuffer.wrap(bytes);
-                for (int i = 0; i < size; i += maxLength) {
-                    int l = Math.min(size - i, maxLength);
-                    byte[] temp = new byte[l];
-                    buffer.get(temp, i, l);
-                    logManager.appendLogRecord(temp);
+                i++;
+            }
+            // 提交日志
+            pending.commitPosition = logWriter.addCommit(pending.txID);
+        }
+        // 整个批次切分成完整的128字节块追加到日志
+        long batchStart;
+        try {
+            batchStart = logWriter.flush();
+        } catch (RuntimeException e) {
+            // 这个批次中的完整写日志不能作为增量日志的基础
+            deltaBases.clear();
+            for (PendingCommit pending : group) {
+                if (pending.future != null) {
+                    pending.future.completeExceptionally(e);
                 }
             }
+            throw e;
         }
-        ArrayList<WritesetEntry> writeset = writesets.get(txID);
-        if (writeset != null) {
-            for (WritesetEntry x : writeset) {
-                // tag is unused in this implementation:
-                // 根据日志偏移添加到lastestValues
-                long tag = tempKey.get(x.key);
-                latestValues.put(x.key, new TaggedValue(tag, x.value));
-                // 存储日志位置
-                pq.add(tag);
+
+        boolean released = false;
+        for (PendingCommit pending : group) {
+            LongHashMap<byte[]> writeset = pending.writeset;
+            int i = 0;
+            for (int slot = writeset.nextSlot(0); slot >= 0; slot = writeset.nextSlot(slot + 1)) {
+                long key = writeset.keyAt(slot);
+                byte[] value = writeset.valueAt(slot);
+                // 用写日志在日志中的偏移作为tag
+                boolean delta = pending.deltas[i];
+                long tag = LogWriter.toLogOffset(batchStart, pending.positions[i++]);
+                latestValues.put(key, new TaggedValue(tag, value));
+                // 记录批次中未持久化的写操作，同一个键之前未持久化的版本不再需要保留在日志中，
+                // 但是增量日志依赖的完整写日志要保留到键持久化或者写入新的完整写日志
+                tracker.addWrite(batchStart);
+                DirtyVersion version = dirty.get(key);
+                if (version == null) {
+                    dirty.put(key, newDirtyVersion(tag));
+                } else if (delta && version.baseOffset < 0) {
+                    version.baseOffset = version.logOffset;
+                } else {
+                    released |= tracker.persisted(version.logOffset);
+                    if (!delta && version.baseOffset >= 0) {
+                        released |= tracker.persisted(version.baseOffset);
+                        version.baseOffset = -1;
+                    }
+                }
+                if (version != null) {
+                    version.tag = tag;
+                    version.logOffset = tag;
+                }
                 // 将kv存储到数据库当中
-                storageManager.queueWrite(x.key, tag, x.value);
+                storageManager.queueWrite(key, tag, value);
             }
-            // 提交后移除
-            writesets.remove(txID);
+            pending.lsn = LogWriter.toLogOffset(batchStart, pending.commitPosition);
+            pending.writeset = null;
+            recycle(writeset);
+        }
+        if (released) {
+            truncate();
+        }
+    }
+
+    /**
+     * 提交组写入之后尝试写检查点，在日志顺序锁内调用。
+     * 提交组已经写入日志并且可见，检查点失败不影响这些提交：冷键原来的日志仍然保留，之后的提交会再次尝试写检查点
+     */
+    private void checkpointAfterCommit() {
+        try {
+            checkpoint();
+        } catch (RuntimeException e) {
+            // 日志的故障由之后写日志的提交报告
         }
     }
 
+    /**
+     * 在日志顺序锁外完成异步提交的future，避免回调在锁内执行
+     */
+    private static void completeGroup(ArrayList<PendingCommit> group) {
+        for (PendingCommit pending : group) {
+            if (pending.future != null) {
+                pending.future.complete(pending.lsn);
+            }
+        }
+    }
+
+    /**
+     * 上一个检查点结束之后写入的日志超过CHECKPOINT_INTERVAL，并且不少于上一个检查点批次长度的CHECKPOINT_RELOG_FACTOR倍时，
+     * 写一个模糊检查点。在上一个检查点之前写入、至今仍未持久化的版本会被重写到检查点批次中，
+     * 这样少数持久化很慢的冷键不会让日志一直无法截断，恢复最多从上一个检查点开始。
+     * 持久化落后、冷键很多时检查点批次很大，间隔随之变长，重写的日志量和前台写入的日志量成比例。
+     * 在日志顺序锁内调用。
+     */
+    private void checkpoint() {
+        long start = logWriter.getTail();
+        long interval = Math.max(CHECKPOINT_INTERVAL, CHECKPOINT_RELOG_FACTOR * (checkpointEnd - lastCheckpoint));
+        if (start - checkpointEnd < interval) {
+            return;
+        }
+        // 重写冷键的最新版本，记录原始tag。原来的日志要等检查点批次写入之后才能释放
+        ArrayList<DirtyVersion> relogged = new ArrayList<>();
+        ArrayList<Integer> positions = new ArrayList<>();
+        for (int slot = dirty.nextSlot(0); slot >= 0; slot = dirty.nextSlot(slot + 1)) {
+            DirtyVersion version = dirty.valueAt(slot);
+            if (version.logOffset >= lastCheckpoint) {
+                continue;
+            }
+            long key = dirty.keyAt(slot);
+            LogRecords record = new LogRecords(5, 0, key, latestValues.get(key).value);
+            record.setTag(version.tag);
+            positions.add(logWriter.add(record));
+            relogged.add(version);
+        }
+        // 检查点之后每个键重新从完整写日志开始，增量日志依赖的完整写日志不会一直阻止截断
+        deltaBases.clear();
+        // 没有冷键时截断位置已经不早于上一个检查点，只推进检查点位置，不写检查点日志
+        if (relogged.isEmpty()) {
+            lastCheckpoint = start;
+            checkpointEnd = start;
+            return;
+        }
+        // 检查点日志标记检查点批次的结束
+        logWriter.add(new LogRecords(4, 0, -1, null));
+        // 写入失败时冷键原来的日志仍然被保留，不会被截断
+        long batchStart = logWriter.flush();
+
+        for (int i = 0; i < relogged.size(); i++) {
+            DirtyVersion version = relogged.get(i);
+            tracker.addWrite(batchStart);
+            tracker.persisted(version.logOffset);
+            // 重写日志是完整的值，不再依赖之前的完整写日志
+            if (version.baseOffset >= 0) {
+                tracker.persisted(version.baseOffset);
+                version.baseOffset = -1;
+            }
+            version.logOffset = LogWriter.toLogOffset(batchStart, positions.get(i));
+        }
+        lastCheckpoint = batchStart;
+        checkpointEnd = logWriter.getTail();
+        truncate();
+    }
+
     /**
      * Aborts a transaction.
      * 回滚事务
      */
     public void abort(long txID) {
-        writesets.remove(txID);
-        transactionsets.remove(txID);
+        recycle(writesets.remove(txID));
+    }
+
+    /**
+     * @return 新的未持久化版本，优先复用已经持久化的版本对象。在日志顺序锁内调用
+     */
+    private DirtyVersion newDirtyVersion(long tag) {
+        DirtyVersion version = freeVersions.poll();
+        if (version == null) {
+            return new DirtyVersion(tag, tag);
+        }
+        version.tag = tag;
+        version.logOffset = tag;
+        version.baseOffset = -1;
+        return version;
+    }
+
+    /**
+     * @return 池中回收的空写集合，池为空时新建
+     */
+    private LongHashMap<byte[]> newWriteset() {
+        LongHashMap<byte[]> writeset;
+        synchronized (writesetPool) {
+            writeset = writesetPool.poll();
+        }
+        return writeset != null ? writeset : new LongHashMap<>();
+    }
+
+    /**
+     * 清空结束的事务的写集合并放回池中
+     */
+    private void recycle(LongHashMap<byte[]> writeset) {
+        if (writeset == null || writeset.size() > MAX_POOLED_WRITESET) {
+            return;
+        }
+        writeset.clear();
+        synchronized (writesetPool) {
+            if (writesetPool.size() < WRITESET_POOL_SIZE) {
+                writesetPool.add(writeset);
+            }
+        }
     }
 
     /**
@@ -254,10 +717,35 @@ public class TransactionManager {
     public void writePersisted(long key, long persisted_tag, byte[] persisted_value) {
         // 这里可以根据redo log的实现来处理
         //当checkpoint和write pos相遇，表示redo log已经满了，这时数据库停止更新数据库更新语句的执行，转而进行redo log日志同步到磁盘中
-        if (persisted_tag==pq.peek()){
+        // 只有键的最新版本持久化才有意义，旧版本在被覆盖时已经释放
+        synchronized (logLock) {
+            DirtyVersion version = dirty.get(key);
+            if (version == null || version.tag != persisted_tag) {
+                return;
+            }
+            dirty.remove(key);
+            deltaBases.remove(key);
+            if (freeVersions.size() < FREE_VERSIONS_SIZE) {
+                freeVersions.add(version);
+            }
+            boolean released = tracker.persisted(version.logOffset);
+            if (version.baseOffset >= 0) {
+                released |= tracker.persisted(version.baseOffset);
+            }
+            if (released) {
+                truncate();
+            }
+        }
+    }
+
+    /**
+     * 截断到最早的未持久化写操作所在批次的起点，全部持久化后截断到日志尾部
+     */
+    private void truncate() {
+        long low = tracker.isEmpty() ? logWriter.getTail() : tracker.lowWaterMark();
+        if (low > logManager.getLogTruncationLsn()) {
             // 设置checkpoint是否为当前最早的日志
-            logManager.setLogTruncationOffset((int)persisted_tag);
+            logManager.setLogTruncationLsn(low);
         }
-        pq.remove(persisted_tag);
     }
 }
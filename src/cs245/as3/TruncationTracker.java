@@ -0,0 +1,110 @@
+package cs245.as3;
+
+/**
+ * 记录每个日志批次还有多少写操作没有持久化，用于计算日志可以截断到的位置
+ * <p>
+ * 批次按日志偏移递增的顺序放在一个环形数组里，每个批次一个计数器。
+ * 持久化回调通过二分查找找到tag所在的批次，O(log n)；队头批次的计数器归零时出队，
+ * 新的队头就是最早的仍有未持久化写操作的批次起点，即日志的截断位置。
+ * 非线程安全。
+ */
+public class TruncationTracker {
+    /**
+     * 批次起始偏移
+     */
+    private long[] starts;
+    /**
+     * 批次中未持久化的写操作数量
+     */
+    private int[] pending;
+    private int mask;
+    /**
+     * 队头和队尾的逻辑下标，物理下标为 下标 &amp; mask
+     */
+    private long head;
+    private long tail;
+
+    public TruncationTracker() {
+        starts = new long[64];
+        pending = new int[64];
+        mask = 63;
+    }
+
+    /**
+     * 记录一条写操作，写操作所在的批次必须不早于之前记录的批次
+     */
+    public void addWrite(long batchStart) {
+        if (head < tail && starts[(int) ((tail - 1) & mask)] == batchStart) {
+            pending[(int) ((tail - 1) & mask)]++;
+            return;
+        }
+        if (tail - head == starts.length) {
+            grow();
+        }
+        int i = (int) (tail & mask);
+        starts[i] = batchStart;
+        pending[i] = 1;
+        tail++;
+    }
+
+    /**
+     * 一条写操作完成持久化
+     * @param tag 写日志的偏移
+     * @return 队头是否前进，即截断位置是否变化
+     */
+    public boolean persisted(long tag) {
+        // 找到最后一个起点不大于tag的批次
+        long lo = head;
+        long hi = tail - 1;
+        if (lo > hi || tag < starts[(int) (lo & mask)]) {
+            return false;
+        }
+        while (lo < hi) {
+            long mid = (lo + hi + 1) >>> 1;
+            if (starts[(int) (mid & mask)] <= tag) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        int i = (int) (lo & mask);
+        if (pending[i] == 0) {
+            return false;
+        }
+        pending[i]--;
+        if (lo != head || pending[i] != 0) {
+            return false;
+        }
+        while (head < tail && pending[(int) (head & mask)] == 0) {
+            head++;
+        }
+        return true;
+    }
+
+    /**
+     * @return 是否所有写操作都已经持久化
+     */
+    public boolean isEmpty() {
+        return head == tail;
+    }
+
+    /**
+     * @return 最早的仍有未持久化写操作的批次起点
+     */
+    public long lowWaterMark() {
+        return starts[(int) (head & mask)];
+    }
+
+    private void grow() {
+        int n = starts.length;
+        long[] newStarts = new long[n * 2];
+        int[] newPending = new int[n * 2];
+        for (long j = head; j < tail; j++) {
+            newStarts[(int) (j & (n * 2 - 1))] = starts[(int) (j & mask)];
+            newPending[(int) (j & (n * 2 - 1))] = pending[(int) (j & mask)];
+        }
+        starts = newStarts;
+        pending = newPending;
+        mask = n * 2 - 1;
+    }
+}
@@ -0,0 +1,58 @@
+package cs245.as3.driver;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import cs245.as3.TransactionManager;
+
+public class AllocationTests {
+
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static long allocatedBytes() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Once warmed up, start/write/commit should allocate little more than the new versions handed to storage:
+     * no per-record objects, no per-chunk arrays and no per-transaction hash tables.
+     */
+    @Test
+    public void TestCommitAllocation() {
+        LogManagerImpl lm = new LogManagerImpl();
+        StorageManagerImpl sm = new StorageManagerImpl();
+        TransactionManager tm = Fixtures.recover(sm, lm);
+
+        byte[][] values = new byte[16][];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = String.format("value %d with some padding", i).getBytes();
+        }
+        long allocated = 0;
+        int measured = 0;
+        for (int i = 0; i < 50000; i++) {
+            long before = allocatedBytes();
+            tm.start(i);
+            tm.write(i, i % 100, values[i % 16]);
+            tm.write(i, (i + 37) % 100, values[(i + 5) % 16]);
+            tm.commit(i);
+            long after = allocatedBytes();
+            if (i >= 40000) {
+                allocated += after - before;
+                measured++;
+            }
+            if (i % 100 == 99) {
+                sm.do_persistence_work();
+            }
+        }
+        long perCommit = allocated / measured;
+        System.out.println("Bytes allocated per commit: " + perCommit);
+        assert(perCommit < 256);
+    }
+}
@@ -0,0 +1,170 @@
+package cs245.as3.driver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import cs245.as3.TransactionManager;
+import cs245.as3.driver.LogManagerImpl.CrashException;
+
+public class AsyncCommitTests {
+
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    private static byte[] value(int i) {
+        byte[] value = new byte[100];
+        Arrays.fill(value, (byte) i);
+        return value;
+    }
+
+    /**
+     * Transactions committed with commitAsync without waiting in between must all become visible
+     * and durable, and commits from one thread must get increasing LSNs.
+     */
+    @Test
+    public void TestPipelinedCommits() {
+        LogManagerImpl lm = new LogManagerImpl();
+        StorageManagerImpl sm = new StorageManagerImpl();
+        TransactionManager tm = Fixtures.recover(sm, lm);
+
+        ArrayList<CompletableFuture<Long>> futures = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            tm.start(i);
+            tm.write(i, i % 300, Integer.toString(i).getBytes());
+            futures.add(tm.commitAsync(i));
+            if (i % 500 == 0) {
+                // 同步提交和异步提交可以混用
+                tm.start(100000 + i);
+                tm.write(100000 + i, 1000, Integer.toString(i).getBytes());
+                tm.commit(100000 + i);
+            }
+        }
+        long lastLsn = -1;
+        for (CompletableFuture<Long> future : futures) {
+            long lsn = future.join();
+            assert(lsn > lastLsn);
+            lastLsn = lsn;
+        }
+        for (int i = 1700; i < 2000; i++) {
+            assert(Arrays.equals(tm.read(3000, i % 300), Integer.toString(i).getBytes()));
+        }
+        sm.do_persistence_work();
+
+        sm.crash();
+        tm = Fixtures.recover(sm, lm);
+        for (int i = 1700; i < 2000; i++) {
+            assert(Arrays.equals(tm.read(3000, i % 300), Integer.toString(i).getBytes()));
+        }
+        assert(Arrays.equals(tm.read(3000, 1000), "1500".getBytes()));
+    }
+
+    /**
+     * When the log stops serving requests, pending async commits fail with the crash and a synchronous
+     * commit sees the crash exception itself. Once the log serves requests again, later commits must not
+     * carry the failed transactions into the log: after recovery everything acknowledged is present and
+     * every failed transaction is absent.
+     */
+    @Test
+    public void TestAsyncCommitCrash() {
+        LogManagerImpl lm = new LogManagerImpl();
+        StorageManagerImpl sm = new StorageManagerImpl();
+        TransactionManager tm = Fixtures.recover(sm, lm);
+
+        lm.stopServingRequestsAfterIOs(20);
+        ArrayList<CompletableFuture<Long>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            tm.start(i);
+            tm.write(i, i, value(i));
+            futures.add(tm.commitAsync(i));
+        }
+        boolean crashed = false;
+        try {
+            tm.start(200);
+            tm.write(200, 200, "200".getBytes());
+            tm.commit(200);
+        } catch (CrashException e) {
+            crashed = true;
+        }
+        assert(crashed);
+
+        ArrayList<Integer> acknowledged = new ArrayList<>();
+        int failed = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).join();
+                acknowledged.add(i);
+            } catch (CompletionException e) {
+                assert(e.getCause() instanceof CrashException);
+                failed++;
+            }
+        }
+        assert(failed > 0);
+
+        // The same transaction manager keeps committing once the log is back.
+        lm.resumeServingRequests();
+        tm.start(201);
+        tm.write(201, 201, value(201));
+        tm.commit(201);
+        tm.start(202);
+        tm.write(202, 202, value(202));
+        CompletableFuture<Long> later = tm.commitAsync(202);
+        later.join();
+
+        sm.crash();
+        tm = Fixtures.recover(sm, lm);
+        for (int i = 0; i < futures.size(); i++) {
+            if (acknowledged.contains(i)) {
+                assert(Arrays.equals(tm.read(300, i), value(i)));
+            } else {
+                assert(tm.read(300, i) == null);
+            }
+        }
+        assert(tm.read(300, 200) == null);
+        assert(Arrays.equals(tm.read(300, 201), value(201)));
+        assert(Arrays.equals(tm.read(300, 202), value(202)));
+    }
+
+    /**
+     * A checkpoint that fails after a group is already in the log must not leave the group's futures
+     * pending or fail them: the transactions are durable and visible. Values are kept small so every
+     * commit fits one chunk and the only multi-chunk batch is the checkpoint.
+     */
+    @Test
+    public void TestCheckpointFailureCompletesFutures() {
+        CheckpointTests.CrashOnCheckpointLog lm = new CheckpointTests.CrashOnCheckpointLog();
+        StorageManagerImpl sm = new StorageManagerImpl();
+        long[] cold = new long[200];
+        for (int i = 0; i < cold.length; i++) {
+            cold[i] = 1000 + i;
+        }
+        sm.blockPersistenceForKeys(cold);
+        TransactionManager tm = Fixtures.recover(sm, lm);
+        for (int i = 0; i < cold.length; i++) {
+            tm.start(i);
+            tm.write(i, cold[i], Integer.toString(i).getBytes());
+            tm.commit(i);
+        }
+
+        int txID = cold.length;
+        while (!lm.crashed) {
+            tm.start(txID);
+            tm.write(txID, txID % 100, Integer.toString(txID).getBytes());
+            CompletableFuture<Long> future = tm.commitAsync(txID);
+            future.join();
+            assert(Arrays.equals(tm.read(txID, txID % 100), Integer.toString(txID).getBytes()));
+            txID++;
+        }
+        int last = txID - 1;
+
+        lm.resumeServingRequests();
+        sm.crash();
+        tm = Fixtures.recover(sm, lm);
+        assert(Arrays.equals(tm.read(txID, last % 100), Integer.toString(last).getBytes()));
+    }
+}
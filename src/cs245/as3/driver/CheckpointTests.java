@@ -0,0 +1,160 @@
+package cs245.as3.driver;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import cs245.as3.TransactionManager;
+
+public class CheckpointTests {
+
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    /**
+     * A key that is never persisted must not pin the log: checkpoints re-log it so the log
+     * can still be truncated, and recovery must bring it back from the checkpoint.
+     */
+    @Test
+    public void TestColdKeyDoesNotPinLog() {
+        LogManagerImpl lm = new LogManagerImpl();
+        StorageManagerImpl sm = new StorageManagerImpl();
+        sm.blockPersistenceForKeys(new long[] {1000});
+        TransactionManager tm = Fixtures.recover(sm, lm);
+
+        byte[] cold = "cold value".getBytes();
+        tm.start(0);
+        tm.write(0, 1000, cold);
+        tm.commit(0);
+
+        int maxLogSize = 0;
+        for (int i = 1; i < 20000; i++) {
+            tm.start(i);
+            tm.write(i, i % 100, String.format("padding %d", i).getBytes());
+            tm.commit(i);
+            if (i % 100 == 99) {
+                sm.do_persistence_work();
+            }
+            maxLogSize = Math.max(maxLogSize, lm.getLogEndOffset() - lm.getLogTruncationOffset());
+        }
+        assert(maxLogSize < 50000);
+
+        sm.crash();
+        tm = Fixtures.recover(sm, lm);
+        assert(Arrays.equals(tm.read(20000, 1000), cold));
+        assert(Arrays.equals(sm.readLatestValue(1000), cold));
+        assert(Arrays.equals(tm.read(20000, 99), "padding 19999".getBytes()));
+    }
+
+    /**
+     * Thousands of keys whose persistence is stalled are re-logged by checkpoints, but the re-logging
+     * stays proportional to the foreground log instead of rewriting the dirty set on every commit.
+     */
+    @Test
+    public void TestStalledKeysBoundedGrowth() {
+        LogManagerImpl lm = new LogManagerImpl();
+        StorageManagerImpl sm = new StorageManagerImpl();
+        long[] stalled = new long[3000];
+        for (int i = 0; i < stalled.length; i++) {
+            stalled[i] = 1000 + i;
+        }
+        sm.blockPersistenceForKeys(stalled);
+        TransactionManager tm = Fixtures.recover(sm, lm);
+
+        Random r = new Random(245);
+        byte[][] values = new byte[stalled.length][];
+        for (int t = 0; t < 30; t++) {
+            tm.start(t);
+            for (int i = t * 100; i < (t + 1) * 100; i++) {
+                values[i] = new byte[100];
+                r.nextBytes(values[i]);
+                tm.write(t, stalled[i], values[i]);
+            }
+            tm.commit(t);
+        }
+
+        int commits = 20000;
+        int start = lm.getLogEndOffset();
+        for (int i = 30; i < 30 + commits; i++) {
+            tm.start(i);
+            tm.write(i, i % 100, String.format("padding %d", i).getBytes());
+            tm.commit(i);
+            if (i % 100 == 99) {
+                sm.do_persistence_work();
+            }
+        }
+        int perCommit = (lm.getLogEndOffset() - start) / commits;
+        System.out.println("Log bytes per commit with " + stalled.length + " stalled keys: " + perCommit);
+        // a commit alone logs about 30 bytes; each checkpoint re-logs the ~330 KB dirty set
+        assert(perCommit < 100);
+
+        sm.crash();
+        tm = Fixtures.recover(sm, lm);
+        for (int i = 0; i < stalled.length; i++) {
+            assert(Arrays.equals(tm.read(commits + 30, stalled[i]), values[i]));
+        }
+    }
+
+    /**
+     * A log that crashes after the first chunk of the first multi-chunk batch, which in these tests is always
+     * a checkpoint; later requests fail until resumeServingRequests. It throws its own exception because a
+     * CrashException holds on to the whole 1 GB log, which then outlives the test.
+     */
+    static class CrashOnCheckpointLog extends LogManagerImpl {
+        boolean crashed;
+
+        @Override
+        public int appendLogRecords(byte[][] records) {
+            if (records.length > 1 && !crashed) {
+                crashed = true;
+                appendLogRecord(records[0]);
+                stopServingRequestsAfterIOs(1);
+                throw new IllegalStateException("log crashed in a checkpoint batch");
+            }
+            return super.appendLogRecords(records);
+        }
+    }
+
+    /**
+     * When the checkpoint batch that re-logs the cold keys fails to append, their original log records
+     * must not be released: persisting the hot keys afterwards must not truncate them away.
+     * The commit that triggered the checkpoint is already durable and must not report the failure.
+     */
+    @Test
+    public void TestFailedCheckpointKeepsColdKeys() {
+        CrashOnCheckpointLog lm = new CrashOnCheckpointLog();
+        StorageManagerImpl sm = new StorageManagerImpl();
+        long[] cold = new long[200];
+        for (int i = 0; i < cold.length; i++) {
+            cold[i] = 1000 + i;
+        }
+        sm.blockPersistenceForKeys(cold);
+        TransactionManager tm = Fixtures.recover(sm, lm);
+
+        for (int i = 0; i < cold.length; i++) {
+            tm.start(i);
+            tm.write(i, cold[i], ("cold " + i).getBytes());
+            tm.commit(i);
+        }
+        long txID = cold.length;
+        while (!lm.crashed) {
+            tm.start(txID);
+            tm.write(txID, txID % 100, String.format("padding %d", txID).getBytes());
+            tm.commit(txID);
+            txID++;
+        }
+        long last = txID - 1;
+        sm.do_persistence_work();
+
+        lm.resumeServingRequests();
+        sm.crash();
+        tm = Fixtures.recover(sm, lm);
+        for (int i = 0; i < cold.length; i++) {
+            assert(Arrays.equals(tm.read(txID, cold[i]), ("cold " + i).getBytes()));
+        }
+        assert(Arrays.equals(tm.read(txID, last % 100), String.format("padding %d", last).getBytes()));
+    }
+}
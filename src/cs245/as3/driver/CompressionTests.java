@@ -0,0 +1,91 @@
+package cs245.as3.driver;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import cs245.as3.LogCompressor;
+import cs245.as3.TransactionManager;
+
+public class CompressionTests {
+
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    private static TransactionManager recover(StorageManagerImpl sm, LogManagerImpl lm, int threshold) {
+        TransactionManager tm = new TransactionManager();
+        tm.setCompressionThreshold(threshold);
+        return Fixtures.recover(tm, sm, lm);
+    }
+
+    private static byte[] text(int i, int size) {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < size) {
+            sb.append(String.format("padding %d ", i));
+        }
+        return sb.substring(0, size).getBytes();
+    }
+
+    /**
+     * Random, repetitive and run-length inputs of every small size and a few large ones
+     * must decompress to exactly the original bytes.
+     */
+    @Test
+    public void TestRoundTrip() {
+        LogCompressor compressor = new LogCompressor(0);
+        Random r = new Random(245);
+        for (int size = 0; size < 3000; size += size < 300 ? 1 : 97) {
+            byte[][] inputs = new byte[3][size];
+            r.nextBytes(inputs[0]);
+            inputs[1] = text(size, size);
+            Arrays.fill(inputs[2], (byte) 7);
+            for (byte[] input : inputs) {
+                int length = compressor.compress(input);
+                byte[] output = new byte[input.length];
+                LogCompressor.decompress(ByteBuffer.wrap(compressor.getOutput(), 0, length), length, output);
+                assert(Arrays.equals(input, output));
+            }
+        }
+    }
+
+    /**
+     * Repetitive values above the threshold take fewer log bytes and append IOPs than with compression off,
+     * and recovery, with or without compression configured, returns the original values.
+     */
+    @Test
+    public void TestCompressedLogRecovery() {
+        int[] logSize = new int[2];
+        int[] iops = new int[2];
+        for (int run = 0; run < 2; run++) {
+            LogManagerImpl lm = new LogManagerImpl();
+            StorageManagerImpl sm = new StorageManagerImpl();
+            sm.blockPersistenceForKeys(new long[] {0});
+            TransactionManager tm = recover(sm, lm, run == 0 ? Integer.MAX_VALUE : 64);
+            for (int i = 0; i < 1000; i++) {
+                tm.start(i);
+                tm.write(i, i % 10, text(i, 1000));
+                tm.write(i, 100 + i % 10, text(i, 16));
+                tm.commit(i);
+                if (i % 100 == 99) {
+                    sm.do_persistence_work();
+                }
+            }
+            logSize[run] = lm.getLogEndOffset();
+            iops[run] = lm.getIOPCount();
+
+            sm.crash();
+            tm = recover(sm, lm, run == 0 ? 64 : Integer.MAX_VALUE);
+            for (int i = 990; i < 1000; i++) {
+                assert(Arrays.equals(tm.read(1000, i % 10), text(i, 1000)));
+                assert(Arrays.equals(tm.read(1000, 100 + i % 10), text(i, 16)));
+            }
+        }
+        System.out.println("Log bytes without/with compression: " + logSize[0] + "/" + logSize[1]);
+        assert(logSize[1] * 4 < logSize[0]);
+        assert(iops[1] * 4 < iops[0]);
+    }
+}
@@ -0,0 +1,133 @@
+package cs245.as3.driver;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import cs245.as3.TransactionManager;
+
+public class ConcurrentTransactionManagerTests {
+
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    private static final int THREADS = 4;
+    private static final int TXNS_PER_THREAD = 5000;
+    private static final int SHARED_KEYS = 64;
+
+    /**
+     * Several threads commit transactions on one transaction manager while another thread persists writes.
+     * Each thread owns a counter key that must end at its last committed value, shared keys must hold a value
+     * some transaction committed, and everything visible before the crash must survive recovery.
+     */
+    @Test
+    public void TestConcurrentTransactions() throws InterruptedException {
+        LogManagerImpl lm = new LogManagerImpl();
+        StorageManagerImpl sm = new StorageManagerImpl();
+        TransactionManager tm = Fixtures.recover(sm, lm);
+
+        Throwable[] failures = new Throwable[THREADS + 1];
+        Set<Long> aborted = ConcurrentHashMap.newKeySet();
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread persister = new Thread(() -> {
+            try {
+                while (running.get()) {
+                    sm.do_persistence_work();
+                }
+            } catch (Throwable e) {
+                failures[THREADS] = e;
+            }
+        });
+        Thread[] workers = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            final TransactionManager manager = tm;
+            workers[t] = new Thread(() -> {
+                try {
+                    Random r = new Random(thread);
+                    for (int i = 0; i < TXNS_PER_THREAD; i++) {
+                        // 事务ID在线程之间交错，保证全局唯一
+                        long txID = (long) i * THREADS + thread;
+                        manager.start(txID);
+                        manager.write(txID, counterKey(thread), Integer.toString(i).getBytes());
+                        manager.write(txID, r.nextInt(SHARED_KEYS), sharedValue(txID));
+                        if (r.nextInt(10) == 0) {
+                            manager.abort(txID);
+                            aborted.add(txID);
+                            // 回滚的事务不能覆盖计数器
+                            manager.start(txID + (long) TXNS_PER_THREAD * THREADS);
+                            manager.write(txID + (long) TXNS_PER_THREAD * THREADS, counterKey(thread), Integer.toString(i).getBytes());
+                            manager.commit(txID + (long) TXNS_PER_THREAD * THREADS);
+                        } else {
+                            manager.commit(txID);
+                        }
+                        byte[] counter = manager.read(txID, counterKey(thread));
+                        assert(Arrays.equals(counter, Integer.toString(i).getBytes()));
+                    }
+                } catch (Throwable e) {
+                    failures[thread] = e;
+                }
+            });
+        }
+        persister.start();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        running.set(false);
+        persister.join();
+        for (Throwable failure : failures) {
+            if (failure != null) {
+                throw new AssertionError(failure);
+            }
+        }
+
+        long nextTxID = 2L * TXNS_PER_THREAD * THREADS;
+        byte[][] before = new byte[SHARED_KEYS][];
+        for (int k = 0; k < SHARED_KEYS; k++) {
+            before[k] = tm.read(nextTxID, k);
+            assert(before[k] != null && before[k].length == 8);
+            assert(!aborted.contains(txIDOf(before[k])));
+        }
+        for (int t = 0; t < THREADS; t++) {
+            assert(Arrays.equals(tm.read(nextTxID, counterKey(t)), Integer.toString(TXNS_PER_THREAD - 1).getBytes()));
+        }
+
+        sm.crash();
+        tm = Fixtures.recover(sm, lm);
+        for (int k = 0; k < SHARED_KEYS; k++) {
+            assert(Arrays.equals(tm.read(nextTxID, k), before[k]));
+        }
+        for (int t = 0; t < THREADS; t++) {
+            assert(Arrays.equals(tm.read(nextTxID, counterKey(t)), Integer.toString(TXNS_PER_THREAD - 1).getBytes()));
+        }
+    }
+
+    private static long counterKey(int thread) {
+        return 1000 + thread;
+    }
+
+    private static long txIDOf(byte[] value) {
+        long txID = 0;
+        for (byte b : value) {
+            txID = (txID << 8) | (b & 0xff);
+        }
+        return txID;
+    }
+
+    private static byte[] sharedValue(long txID) {
+        byte[] value = new byte[8];
+        for (int i = 0; i < 8; i++) {
+            value[i] = (byte) (txID >>> (56 - i * 8));
+        }
+        return value;
+    }
+}
@@ -0,0 +1,80 @@
+package cs245.as3.driver;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import cs245.as3.TransactionManager;
+
+public class DeltaEncodingTests {
+
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    private static byte[] counter(int i) {
+        return String.format("%-60s counter %08d %-30s", "hot key payload", i, "trailer").getBytes();
+    }
+
+    /**
+     * Repeated writes to a hot key that differ only in a counter are logged as small deltas.
+     */
+    @Test
+    public void TestHotKeyLogBytes() {
+        LogManagerImpl lm = new LogManagerImpl();
+        StorageManagerImpl sm = new StorageManagerImpl();
+        TransactionManager tm = Fixtures.recover(sm, lm);
+        tm.setCompressionThreshold(Integer.MAX_VALUE);
+
+        int n = 10000;
+        for (int i = 0; i < n; i++) {
+            tm.start(i);
+            tm.write(i, 7, counter(i));
+            tm.commit(i);
+            if (i % 100 == 99) {
+                sm.do_persistence_work();
+            }
+        }
+        int perTxn = lm.getLogEndOffset() / n;
+        System.out.println("Log bytes per hot-key transaction: " + perTxn + ", value size " + counter(0).length);
+        assert(perTxn * 4 < counter(0).length);
+    }
+
+    /**
+     * Crashes at random points with a mix of persisted, unpersisted and never-persisted keys, across checkpoints
+     * and truncations, must always recover the latest committed value from deltas and their full images.
+     */
+    @Test
+    public void TestDeltaRecovery() {
+        LogManagerImpl lm = new LogManagerImpl();
+        StorageManagerImpl sm = new StorageManagerImpl();
+        sm.blockPersistenceForKeys(new long[] {3});
+        TransactionManager tm = Fixtures.recover(sm, lm);
+
+        Random r = new Random(245);
+        byte[][] latest = new byte[8][];
+        long txID = 0;
+        for (int round = 0; round < 20; round++) {
+            int txns = 500 + r.nextInt(2000);
+            for (int i = 0; i < txns; i++, txID++) {
+                tm.start(txID);
+                int key = r.nextInt(latest.length);
+                byte[] value = counter(r.nextInt(1000));
+                tm.write(txID, key, value);
+                tm.commit(txID);
+                latest[key] = value;
+                if (r.nextInt(50) == 0) {
+                    sm.do_persistence_work();
+                }
+            }
+            sm.crash();
+            tm = Fixtures.recover(sm, lm);
+            for (int key = 0; key < latest.length; key++) {
+                assert(Arrays.equals(tm.read(txID, key), latest[key]));
+            }
+        }
+        assert(lm.getLogEndOffset() - lm.getLogTruncationOffset() < 50000);
+    }
+}
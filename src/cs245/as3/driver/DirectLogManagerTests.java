@@ -0,0 +1,77 @@
+package cs245.as3.driver;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import cs245.as3.DirectLogManager;
+import cs245.as3.TransactionManager;
+
+public class DirectLogManagerTests {
+
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    /**
+     * Records spanning segment boundaries read back intact, and segments are only allocated as the log grows.
+     */
+    @Test
+    public void TestAppendRead() {
+        DirectLogManager lm = new DirectLogManager(1000);
+        assert(lm.getSegmentCount() == 0);
+        Random r = new Random(245);
+        ArrayList<byte[]> records = new ArrayList<>();
+        ArrayList<Integer> offsets = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            byte[] record = new byte[1 + r.nextInt(128)];
+            r.nextBytes(record);
+            offsets.add(lm.appendLogRecord(record));
+            records.add(record);
+        }
+        assert(lm.getSegmentCount() == (lm.getLogEndOffset() + 999) / 1000);
+        for (int i = 0; i < records.size(); i++) {
+            assert(Arrays.equals(lm.readLogRecord(offsets.get(i), records.get(i).length), records.get(i)));
+        }
+        ByteBuffer view = lm.readLogBuffer(offsets.get(0), lm.getLogEndOffset());
+        assert(view.isReadOnly() && view.isDirect() && view.remaining() == 1000);
+    }
+
+    /**
+     * A long workload keeps only a few segments resident because truncated segments are recycled
+     * instead of allocated again, and the TransactionManager still recovers from the retained tail.
+     */
+    @Test
+    public void TestBoundedFootprint() {
+        DirectLogManager lm = new DirectLogManager(64 * 1024);
+        StorageManagerImpl sm = new StorageManagerImpl();
+        TransactionManager tm = Fixtures.recover(sm, lm);
+
+        int maxSegments = 0;
+        for (int i = 0; i < 200000; i++) {
+            tm.start(i);
+            tm.write(i, i % 100, String.format("padding %d", i).getBytes());
+            tm.write(i, 100 + i % 7, new byte[40]);
+            tm.commit(i);
+            if (i % 100 == 99 && i < 199000) {
+                sm.do_persistence_work();
+            }
+            maxSegments = Math.max(maxSegments, lm.getSegmentCount());
+        }
+        System.out.println("Log end " + lm.getLogEndOffset() + ", at most " + maxSegments + " segments resident, "
+                + lm.getAllocatedSegmentCount() + " allocated");
+        assert(lm.getLogEndOffset() > 100 * 64 * 1024);
+        assert(maxSegments <= 3);
+        assert(lm.getAllocatedSegmentCount() <= maxSegments + 2);
+
+        sm.crash();
+        tm = Fixtures.recover(sm, lm);
+        for (int i = 199900; i < 200000; i++) {
+            assert(Arrays.equals(tm.read(200000, i % 100), String.format("padding %d", i).getBytes()));
+        }
+    }
+}
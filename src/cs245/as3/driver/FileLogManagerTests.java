@@ -0,0 +1,196 @@
+package cs245.as3.driver;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import cs245.as3.FileLogManager;
+import cs245.as3.TransactionManager;
+
+public class FileLogManagerTests {
+
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    private static int segmentCount(Path directory) throws IOException {
+        int n = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.log")) {
+            for (Path ignored : stream) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    private static byte[] record(Random r) {
+        byte[] record = new byte[1 + r.nextInt(128)];
+        r.nextBytes(record);
+        return record;
+    }
+
+    /**
+     * Records spanning segment boundaries read back intact, before and after reopening the log.
+     */
+    @Test
+    public void TestAppendReadReopen() throws IOException {
+        Path directory = Files.createTempDirectory("filelog");
+        try {
+            Random r = new Random(245);
+            ArrayList<byte[]> records = new ArrayList<>();
+            ArrayList<Integer> offsets = new ArrayList<>();
+            try (FileLogManager lm = new FileLogManager(directory, 1000)) {
+                for (int i = 0; i < 300; i++) {
+                    byte[] record = record(r);
+                    offsets.add(lm.appendLogRecord(record));
+                    records.add(record);
+                }
+                for (int i = 0; i < records.size(); i++) {
+                    assert(Arrays.equals(lm.readLogRecord(offsets.get(i), records.get(i).length), records.get(i)));
+                }
+            }
+            try (FileLogManager lm = new FileLogManager(directory, 1000)) {
+                byte[] last = records.get(records.size() - 1);
+                assert(lm.getLogEndOffset() == offsets.get(offsets.size() - 1) + last.length);
+                for (int i = 0; i < records.size(); i++) {
+                    assert(Arrays.equals(lm.readLogRecord(offsets.get(i), records.get(i).length), records.get(i)));
+                }
+                byte[] record = record(r);
+                int offset = lm.appendLogRecord(record);
+                assert(offset == offsets.get(offsets.size() - 1) + last.length);
+                assert(Arrays.equals(lm.readLogRecord(offset, record.length), record));
+            }
+        } finally {
+            Fixtures.delete(directory);
+        }
+    }
+
+    /**
+     * Truncation deletes whole segments below the offset, and the offset survives reopening.
+     * Bytes written past the durable end by an append that never returned are dropped on reopen.
+     */
+    @Test
+    public void TestTruncationAndTornTail() throws IOException {
+        Path directory = Files.createTempDirectory("filelog");
+        try {
+            Random r = new Random(42);
+            int end;
+            try (FileLogManager lm = new FileLogManager(directory, 1024)) {
+                for (int i = 0; i < 200; i++) {
+                    lm.appendLogRecord(record(r));
+                }
+                end = lm.getLogEndOffset();
+                int before = segmentCount(directory);
+                lm.setLogTruncationOffset(end / 2);
+                assert(segmentCount(directory) < before);
+            }
+            Path last;
+            try (Stream<Path> paths = Files.list(directory)) {
+                last = paths.filter(path -> path.toString().endsWith(".log")).max(Comparator.naturalOrder()).get();
+            }
+            Files.write(last, new byte[] {1, 2, 3, 4, 5}, StandardOpenOption.APPEND);
+
+            try (FileLogManager lm = new FileLogManager(directory, 1024)) {
+                assert(lm.getLogTruncationOffset() == end / 2);
+                assert(lm.getLogEndOffset() == end);
+                lm.readLogRecord(end / 2, 100);
+                boolean failed = false;
+                try {
+                    lm.readLogRecord(end / 2 - 1, 1);
+                } catch (ArrayIndexOutOfBoundsException e) {
+                    failed = true;
+                }
+                assert(failed);
+            }
+        } finally {
+            Fixtures.delete(directory);
+        }
+    }
+
+    /**
+     * Concurrent appends share forces, and every record lands intact at its own offset.
+     */
+    @Test
+    public void TestGroupSync() throws Exception {
+        Path directory = Files.createTempDirectory("filelog");
+        try (FileLogManager lm = new FileLogManager(directory, 4096)) {
+            int threads = 8;
+            int appends = 200;
+            int[][] offsets = new int[threads][appends];
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                int id = t;
+                workers[t] = new Thread(() -> {
+                    for (int i = 0; i < appends; i++) {
+                        byte[] record = new byte[64];
+                        Arrays.fill(record, (byte) id);
+                        record[0] = (byte) i;
+                        offsets[id][i] = lm.appendLogRecord(record);
+                    }
+                });
+                workers[t].start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            System.out.println("Forces for " + threads * appends + " appends: " + lm.getSyncCount());
+            assert(lm.getSyncCount() <= threads * appends);
+            for (int t = 0; t < threads; t++) {
+                for (int i = 0; i < appends; i++) {
+                    byte[] record = lm.readLogRecord(offsets[t][i], 64);
+                    assert(record[0] == (byte) i && record[63] == (byte) t);
+                }
+            }
+        } finally {
+            Fixtures.delete(directory);
+        }
+    }
+
+    /**
+     * A TransactionManager on a FileLogManager recovers committed data after the process restarts,
+     * with the log reopened from disk and the store losing everything not yet persisted.
+     */
+    @Test
+    public void TestTransactionManagerRestart() throws IOException {
+        Path directory = Files.createTempDirectory("filelog");
+        try {
+            StorageManagerImpl sm = new StorageManagerImpl();
+            byte[][] latest = new byte[20][];
+            Random r = new Random(7);
+            try (FileLogManager lm = new FileLogManager(directory, 8192)) {
+                TransactionManager tm = Fixtures.recover(sm, lm);
+                for (int i = 0; i < 2000; i++) {
+                    tm.start(i);
+                    int key = r.nextInt(latest.length);
+                    latest[key] = String.format("value %d", i).getBytes();
+                    tm.write(i, key, latest[key]);
+                    tm.commit(i);
+                    if (i % 300 == 299) {
+                        sm.do_persistence_work();
+                    }
+                }
+                assert(lm.getLogTruncationOffset() > 0);
+            }
+            sm.crash();
+
+            try (FileLogManager lm = new FileLogManager(directory, 8192)) {
+                TransactionManager tm = Fixtures.recover(sm, lm);
+                for (int key = 0; key < latest.length; key++) {
+                    assert(Arrays.equals(tm.read(2000, key), latest[key]));
+                }
+            }
+        } finally {
+            Fixtures.delete(directory);
+        }
+    }
+}
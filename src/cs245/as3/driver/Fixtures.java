@@ -0,0 +1,45 @@
+package cs245.as3.driver;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import cs245.as3.TransactionManager;
+import cs245.as3.interfaces.LogManager;
+
+/**
+ * Setup and cleanup shared by the driver tests.
+ */
+public class Fixtures {
+    private Fixtures() {
+    }
+
+    /**
+     * Restarts on the given store and log with a new transaction manager, the way the grader does after a crash.
+     */
+    public static TransactionManager recover(StorageManagerImpl sm, LogManager lm) {
+        return recover(new TransactionManager(), sm, lm);
+    }
+
+    /**
+     * Restarts on the given store and log with a transaction manager the caller has already configured.
+     */
+    public static TransactionManager recover(TransactionManager tm, StorageManagerImpl sm, LogManager lm) {
+        sm.setPersistenceListener(tm);
+        sm.in_recovery = true;
+        tm.initAndRecover(sm, lm);
+        sm.in_recovery = false;
+        return tm;
+    }
+
+    /**
+     * Deletes a directory and everything in it.
+     */
+    public static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package cs245.as3.driver;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import cs245.as3.LogWriter;
+import cs245.as3.TransactionManager;
+import cs245.as3.driver.LogManagerImpl.CrashException;
+
+public class LargeValueTests {
+
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    private static byte[] value(Random r, int size) {
+        byte[] value = new byte[size];
+        r.nextBytes(value);
+        return value;
+    }
+
+    /**
+     * Values of several KB span many log chunks and must come back intact after a crash,
+     * both from the log and from the checkpoints that re-log them while they are unpersisted.
+     */
+    @Test
+    public void TestLargeValuesRecovery() {
+        LogManagerImpl lm = new LogManagerImpl();
+        StorageManagerImpl sm = new StorageManagerImpl();
+        sm.blockPersistenceForKeys(new long[] {0});
+        TransactionManager tm = Fixtures.recover(sm, lm);
+
+        Random r = new Random(245);
+        byte[][] latest = new byte[10][];
+        for (int i = 0; i < 2000; i++) {
+            tm.start(i);
+            for (int j = 0; j < 3; j++) {
+                int key = r.nextInt(latest.length);
+                latest[key] = value(r, 100 + r.nextInt(8000));
+                tm.write(i, key, latest[key]);
+            }
+            tm.commit(i);
+            if (i % 50 == 49) {
+                sm.do_persistence_work();
+            }
+        }
+
+        sm.crash();
+        tm = Fixtures.recover(sm, lm);
+        for (int key = 0; key < latest.length; key++) {
+            assert(Arrays.equals(tm.read(2000, key), latest[key]));
+        }
+    }
+
+    /**
+     * A crash in the middle of appending a large transaction must drop it entirely,
+     * and transactions committed after restart must still be found by the next recovery.
+     */
+    @Test
+    public void TestTornLargeValue() {
+        LogManagerImpl lm = new LogManagerImpl();
+        StorageManagerImpl sm = new StorageManagerImpl();
+        TransactionManager tm = Fixtures.recover(sm, lm);
+
+        Random r = new Random(42);
+        byte[] small = "small".getBytes();
+        tm.start(0);
+        tm.write(0, 1, small);
+        tm.commit(0);
+
+        lm.stopServingRequestsAfterIOs(10);
+        boolean crashed = false;
+        try {
+            tm.start(1);
+            tm.write(1, 1, value(r, 5000));
+            tm.commit(1);
+        } catch (CrashException e) {
+            crashed = true;
+        }
+        assert(crashed);
+
+        lm.resumeServingRequests();
+        sm.crash();
+        tm = Fixtures.recover(sm, lm);
+        assert(Arrays.equals(tm.read(2, 1), small));
+
+        byte[] large = value(r, 3000);
+        tm.start(2);
+        tm.write(2, 2, large);
+        tm.commit(2);
+        sm.crash();
+        tm = Fixtures.recover(sm, lm);
+        assert(Arrays.equals(tm.read(3, 1), small));
+        assert(Arrays.equals(tm.read(3, 2), large));
+    }
+
+    /**
+     * A batch boundary that does not hold the first chunk of a batch is corruption, not the end of the log,
+     * and recovery must report it instead of silently dropping everything after it.
+     */
+    @Test
+    public void TestCorruptBatchBoundary() {
+        LogManagerImpl lm = new LogManagerImpl();
+        StorageManagerImpl sm = new StorageManagerImpl();
+        TransactionManager tm = Fixtures.recover(sm, lm);
+        tm.start(0);
+        tm.write(0, 1, "before".getBytes());
+        tm.commit(0);
+
+        byte[] chunk = new byte[LogWriter.CHUNK_SIZE];
+        chunk[0] = LogWriter.CHUNK_NEXT;
+        lm.appendLogRecord(chunk);
+
+        sm.crash();
+        boolean rejected = false;
+        try {
+            Fixtures.recover(sm, lm);
+        } catch (IllegalStateException e) {
+            rejected = true;
+        }
+        assert(rejected);
+    }
+}
@@ -0,0 +1,189 @@
+package cs245.as3.driver;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cs245.as3.TransactionManager;
+
+/**
+ * Load generator: runs many concurrent clients, each replaying Workloads.Transaction instances against one
+ * thread-safe TransactionManager, and reports commit throughput and commit latency percentiles.
+ * <p>
+ * Clients run on virtual threads when the JVM provides them (Java 21+), otherwise on one platform thread each.
+ * A background thread keeps persisting queued writes so the log can be truncated during the run.
+ * <p>
+ * Usage: LoadGenerator [clients] [seconds] [coupled|big]
+ */
+public class LoadGenerator {
+    /**
+     * Stop issuing transactions before LogManagerImpl's fixed buffer fills up
+     */
+    private static final int LOG_LIMIT = 900000000;
+
+    public static class Result {
+        public String executor;
+        public int clients;
+        public long commits;
+        public double seconds;
+        public long p50Nanos;
+        public long p99Nanos;
+        public long p999Nanos;
+
+        public double commitsPerSecond() {
+            return commits / seconds;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d clients on %s: %d commits in %.2fs, %.0f commits/s, latency p50 %.1fus p99 %.1fus p999 %.1fus",
+                    clients, executor, commits, seconds, commitsPerSecond(),
+                    p50Nanos / 1e3, p99Nanos / 1e3, p999Nanos / 1e3);
+        }
+    }
+
+    /**
+     * 每个客户端记录自己的提交延迟，结束后合并
+     */
+    private static class Client implements Runnable {
+        private final TransactionManager tm;
+        private final Workloads.Transaction txn;
+        private final Random r;
+        private final AtomicLong txIDs;
+        private final AtomicBoolean running;
+        private final LogManagerImpl lm;
+        long[] latencies = new long[1024];
+        int count;
+        Throwable failure;
+
+        Client(TransactionManager tm, LogManagerImpl lm, Workloads.Transaction txn, long seed, AtomicLong txIDs, AtomicBoolean running) {
+            this.tm = tm;
+            this.lm = lm;
+            this.txn = txn;
+            this.r = new Random(seed);
+            this.txIDs = txIDs;
+            this.running = running;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running.get() && lm.getLogEndOffset() < LOG_LIMIT) {
+                    txn.generate(r);
+                    long txID = txIDs.getAndIncrement();
+                    while (!txn.on_commit_step()) {
+                        txn.step(txID, tm);
+                    }
+                    long start = System.nanoTime();
+                    txn.step(txID, tm);
+                    long latency = System.nanoTime() - start;
+                    if (count == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, count * 2);
+                    }
+                    latencies[count++] = latency;
+                }
+            } catch (Throwable e) {
+                failure = e;
+            }
+        }
+    }
+
+    /**
+     * @return virtual-thread-per-task executor if the JVM has one, otherwise a pool with one platform thread per client
+     */
+    static ExecutorService newClientExecutor(int clients) {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(clients, runnable -> {
+                Thread thread = new Thread(runnable, "load-client");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public static Result run(int clients, long millis, Class<? extends Workloads.Transaction> workload) throws Exception {
+        LogManagerImpl lm = new LogManagerImpl();
+        StorageManagerImpl sm = new StorageManagerImpl();
+        TransactionManager tm = new TransactionManager();
+        sm.setPersistenceListener(tm);
+        sm.in_recovery = true;
+        tm.initAndRecover(sm, lm);
+        sm.in_recovery = false;
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong txIDs = new AtomicLong();
+        Thread persister = new Thread(() -> {
+            while (running.get()) {
+                if (!sm.do_persistence_work()) {
+                    Thread.yield();
+                }
+            }
+        }, "load-persister");
+        persister.setDaemon(true);
+
+        Client[] workers = new Client[clients];
+        for (int i = 0; i < clients; i++) {
+            workers[i] = new Client(tm, lm, workload.getConstructor().newInstance(), i, txIDs, running);
+        }
+        ExecutorService executor = newClientExecutor(clients);
+        persister.start();
+        long start = System.nanoTime();
+        for (Client client : workers) {
+            executor.execute(client);
+        }
+        Thread.sleep(millis);
+        running.set(false);
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        long elapsed = System.nanoTime() - start;
+        persister.join();
+
+        int total = 0;
+        for (Client client : workers) {
+            if (client.failure != null) {
+                throw new RuntimeException("client failed", client.failure);
+            }
+            total += client.count;
+        }
+        long[] latencies = new long[total];
+        int n = 0;
+        for (Client client : workers) {
+            System.arraycopy(client.latencies, 0, latencies, n, client.count);
+            n += client.count;
+        }
+        Arrays.sort(latencies);
+
+        Result result = new Result();
+        result.executor = executor.getClass().getSimpleName();
+        result.clients = clients;
+        result.commits = total;
+        result.seconds = elapsed / 1e9;
+        result.p50Nanos = percentile(latencies, 0.5);
+        result.p99Nanos = percentile(latencies, 0.99);
+        result.p999Nanos = percentile(latencies, 0.999);
+        return result;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * p) - 1)];
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        Class<? extends Workloads.Transaction> workload = args.length > 2 && args[2].equals("big")
+                ? Workloads.BigTransaction.class : Workloads.CoupledWritesTransaction.class;
+        System.out.println(run(clients, seconds * 1000L, workload));
+    }
+}
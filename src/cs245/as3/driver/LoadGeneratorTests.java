@@ -0,0 +1,22 @@
+package cs245.as3.driver;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+public class LoadGeneratorTests {
+
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    /**
+     * A short run with many clients must commit transactions without failures and report ordered percentiles.
+     */
+    @Test
+    public void TestShortRun() throws Exception {
+        LoadGenerator.Result result = LoadGenerator.run(200, 500, Workloads.BigTransaction.class);
+        System.out.println(result);
+        assert(result.commits > 0);
+        assert(result.p50Nanos <= result.p99Nanos && result.p99Nanos <= result.p999Nanos);
+    }
+}
@@ -0,0 +1,220 @@
+package cs245.as3.driver;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import cs245.as3.DirectLogManager;
+import cs245.as3.LogReader;
+import cs245.as3.LogRecords;
+import cs245.as3.LogWriter;
+import cs245.as3.interfaces.LsnLogManager;
+
+public class LogReaderTests {
+
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    /**
+     * An in-memory log without read-only views, so LogReader reads it in windows and prefetches the next one.
+     */
+    private static class ArrayLog implements LsnLogManager {
+        private byte[] log = new byte[1 << 16];
+        private int end;
+        private int batches;
+
+        @Override
+        public long appendLogs(byte[][] records) {
+            batches++;
+            return LsnLogManager.super.appendLogs(records);
+        }
+
+        @Override
+        public long getLogEndLsn() {
+            return end;
+        }
+
+        @Override
+        public byte[] readLog(long lsn, int size) {
+            return Arrays.copyOfRange(log, (int) lsn, (int) lsn + size);
+        }
+
+        @Override
+        public long appendLog(byte[] record) {
+            if (end + record.length > log.length) {
+                log = Arrays.copyOf(log, Math.max(end + record.length, log.length * 2));
+            }
+            System.arraycopy(record, 0, log, end, record.length);
+            end += record.length;
+            return end - record.length;
+        }
+
+        @Override
+        public long getLogTruncationLsn() {
+            return 0;
+        }
+
+        @Override
+        public void setLogTruncationLsn(long lsn) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Frames records into the chunks LogWriter would append for one batch.
+     */
+    private static byte[][] batch(LogRecords... records) {
+        ByteBuffer payload = ByteBuffer.allocate(1 << 16);
+        long prevTxID = 0;
+        for (LogRecords record : records) {
+            LogRecords.changeToByte(record, prevTxID, payload, null);
+            if (record.hasTxID()) {
+                prevTxID = record.getTxID();
+            }
+        }
+        int length = payload.position();
+        byte[] framed = new byte[LogWriter.batchLength(length)];
+        ByteBuffer out = ByteBuffer.wrap(framed);
+        out.put(LogWriter.CHUNK_FIRST).putInt(length);
+        payload.flip();
+        for (int chunk = 0; payload.hasRemaining(); chunk++) {
+            if (chunk > 0) {
+                out.put(LogWriter.CHUNK_NEXT);
+            }
+            int n = Math.min(payload.remaining(), chunk == 0 ? LogWriter.FIRST_PAYLOAD : LogWriter.NEXT_PAYLOAD);
+            out.put(payload.array(), payload.position(), n);
+            payload.position(payload.position() + n);
+        }
+        byte[][] chunks = new byte[(framed.length + LogWriter.CHUNK_SIZE - 1) / LogWriter.CHUNK_SIZE][];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = Arrays.copyOfRange(framed, i * LogWriter.CHUNK_SIZE,
+                    Math.min(framed.length, (i + 1) * LogWriter.CHUNK_SIZE));
+        }
+        return chunks;
+    }
+
+    /**
+     * A batch holding one write of a value large enough to span several chunks.
+     */
+    private static byte[][] write(long txID, long key, int size) {
+        byte[] value = new byte[size];
+        Arrays.fill(value, (byte) key);
+        return batch(new LogRecords(1, txID, key, value), new LogRecords(2, txID, -1, null));
+    }
+
+    private static void append(LsnLogManager lm, byte[][] chunks, int count) {
+        for (int i = 0; i < count; i++) {
+            lm.appendLog(chunks[i]);
+        }
+    }
+
+    /**
+     * @return keys of the write records the reader returns, in log order
+     */
+    private static ArrayList<Long> readKeys(LsnLogManager lm) {
+        ArrayList<Long> keys = new ArrayList<>();
+        try (LogReader reader = new LogReader(lm, lm.getLogTruncationLsn(), lm.getLogEndLsn())) {
+            while (reader.hasNext()) {
+                LogRecords record = reader.next();
+                if (record.getType() == 1) {
+                    assert(record.getValue().length > 0 && record.getValue()[0] == (byte) record.getKey());
+                    keys.add(record.getKey());
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * A batch cut short by the next batch's first chunk, and one cut short by the end of the log,
+     * are skipped whole on both the windowed and the view-based read paths.
+     */
+    @Test
+    public void TestSkipsTornBatches() {
+        LsnLogManager[] managers = { new ArrayLog(), new DirectLogManager(4096) };
+        for (LsnLogManager lm : managers) {
+            byte[][] first = write(1, 1, 50);
+            append(lm, first, first.length);
+            byte[][] torn = write(2, 2, 500);
+            assert(torn.length > 2);
+            append(lm, torn, 2);
+            byte[][] whole = write(3, 3, 500);
+            append(lm, whole, whole.length);
+            byte[][] tail = write(4, 4, 500);
+            append(lm, tail, tail.length - 1);
+            assert(readKeys(lm).equals(Arrays.asList(1L, 3L)));
+        }
+    }
+
+    /**
+     * Chunk headers, including the first chunk's 4-byte length, that straddle or start exactly at the boundary
+     * between a window and the prefetched next window are stitched together.
+     */
+    @Test
+    public void TestHeadersAcrossReadWindow() {
+        int[] shifts = { -256, -128, -6, -5, -4, -3, -2, -1, 0, 1 };
+        for (int shift : shifts) {
+            ArrayLog lm = new ArrayLog();
+            long target = LogReader.READ_WINDOW + shift;
+            // fill with batches of one-byte checkpoint markers up to the target offset
+            while (lm.getLogEndLsn() < target) {
+                int gap = (int) (target - lm.getLogEndLsn());
+                // leave either nothing or room for at least one more marker batch
+                int size = gap <= LogWriter.CHUNK_SIZE ? gap : Math.min(LogWriter.CHUNK_SIZE, gap - LogWriter.FIRST_HEADER - 1);
+                LogRecords[] filler = new LogRecords[size - LogWriter.FIRST_HEADER];
+                Arrays.fill(filler, new LogRecords(4, 0, -1, null));
+                append(lm, batch(filler), 1);
+            }
+            assert(lm.getLogEndLsn() == target);
+            byte[][] chunks = write(7, 7, 1000);
+            append(lm, chunks, chunks.length);
+            append(lm, write(8, 8, 10), 1);
+            assert(readKeys(lm).equals(Arrays.asList(7L, 8L)));
+        }
+    }
+
+    /**
+     * The writes and commits of several transactions added before one flush go out in a single appendLogs
+     * call, and every record reads back with its own txID, the batch start and its offset within the batch.
+     */
+    @Test
+    public void TestSeveralTransactionsInOneBatch() {
+        ArrayLog lm = new ArrayLog();
+        LogWriter writer = new LogWriter(lm, Integer.MAX_VALUE);
+        long[] txIDs = { 10, 12, 11 };
+        ArrayList<Integer> positions = new ArrayList<>();
+        for (long txID : txIDs) {
+            for (long key = txID * 10; key < txID * 10 + 3; key++) {
+                byte[] value = new byte[60];
+                Arrays.fill(value, (byte) key);
+                positions.add(writer.addWrite(txID, key, value, null));
+            }
+            positions.add(writer.addCommit(txID));
+        }
+        long batchStart = writer.flush();
+        assert(lm.batches == 1);
+        assert(writer.getTail() == lm.getLogEndLsn());
+
+        int i = 0;
+        try (LogReader reader = new LogReader(lm, 0, lm.getLogEndLsn())) {
+            while (reader.hasNext()) {
+                LogRecords record = reader.next();
+                long txID = txIDs[i / 4];
+                assert(record.getTxID() == txID);
+                assert(record.getType() == (i % 4 == 3 ? 2 : 1));
+                if (record.getType() == 1) {
+                    assert(record.getKey() == txID * 10 + i % 4);
+                    assert(record.getValue()[0] == (byte) record.getKey());
+                }
+                assert(record.getBatchOffset() == batchStart);
+                assert(record.getOffset() == LogWriter.toLogOffset(batchStart, positions.get(i)));
+                i++;
+            }
+        }
+        assert(i == txIDs.length * 4);
+    }
+}
@@ -0,0 +1,119 @@
+package cs245.as3.driver;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import cs245.as3.LogRecords;
+import cs245.as3.TransactionManager;
+
+public class LogRecordsTests {
+
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    /**
+     * A record in the fixed-size format the original TransactionManager wrote:
+     * txID, type, record size, then key and value for writes.
+     */
+    private static byte[] legacyRecord(long txID, int type, long key, byte[] value) {
+        int size = LogRecords.LEGACY_HEADER + (type == 1 ? 8 + value.length : 0);
+        ByteBuffer record = ByteBuffer.allocate(size);
+        record.putLong(txID);
+        record.putInt(type);
+        record.putInt(size);
+        if (type == 1) {
+            record.putLong(key);
+            record.put(value);
+        }
+        return record.array();
+    }
+
+    /**
+     * A log written entirely in the legacy unframed format is recovered, including transactions whose writes
+     * and commit were appended separately, and an uncommitted transaction is dropped. New batches appended
+     * after the legacy records are found by the next recovery.
+     */
+    @Test
+    public void TestLegacyLogRecovery() {
+        LogManagerImpl lm = new LogManagerImpl();
+        StorageManagerImpl sm = new StorageManagerImpl();
+        lm.appendLogRecord(legacyRecord(1, 1, 10, "ten".getBytes()));
+        lm.appendLogRecord(legacyRecord(1, 1, 11, "eleven".getBytes()));
+        lm.appendLogRecord(legacyRecord(1, 2, -1, null));
+        lm.appendLogRecord(legacyRecord(2, 1, 10, "ten again".getBytes()));
+        lm.appendLogRecord(legacyRecord(2, 2, -1, null));
+        lm.appendLogRecord(legacyRecord(3, 1, 12, "uncommitted".getBytes()));
+
+        TransactionManager tm = Fixtures.recover(sm, lm);
+        assert(Arrays.equals(tm.read(4, 10), "ten again".getBytes()));
+        assert(Arrays.equals(tm.read(4, 11), "eleven".getBytes()));
+        assert(tm.read(4, 12) == null);
+
+        tm.start(4);
+        tm.write(4, 12, "twelve".getBytes());
+        tm.commit(4);
+        sm.crash();
+        tm = Fixtures.recover(sm, lm);
+        assert(Arrays.equals(tm.read(5, 10), "ten again".getBytes()));
+        assert(Arrays.equals(tm.read(5, 11), "eleven".getBytes()));
+        assert(Arrays.equals(tm.read(5, 12), "twelve".getBytes()));
+
+        sm.do_persistence_work();
+        assert(Arrays.equals(sm.readLatestValue(11), "eleven".getBytes()));
+        sm.crash();
+        tm = Fixtures.recover(sm, lm);
+        assert(Arrays.equals(tm.read(5, 12), "twelve".getBytes()));
+    }
+
+    /**
+     * Each record type decodes back to the fields it was written with, in exactly the number of bytes
+     * the compact format prescribes, and never more than size() reserves for it.
+     */
+    @Test
+    public void TestCompactRoundTrip() {
+        byte[] value = new byte[100];
+        Arrays.fill(value, (byte) 7);
+        LogRecords write = new LogRecords(1, 1000, -3, value);
+        LogRecords commit = new LogRecords(2, 1000, -1, null);
+        LogRecords checkpoint = new LogRecords(4, 0, -1, null);
+        LogRecords relog = new LogRecords(5, 0, 7, "abc".getBytes());
+        relog.setTag(300);
+        LogRecords[] records = { write, commit, checkpoint, relog };
+        // the write's txID delta zigzags to 2000, a 2-byte varint; the relog's tag 300 is one too
+        int[] sizes = { 1 + 2 + 1 + 1 + 100, 1 + 1, 1, 1 + 1 + 2 + 1 + 3 };
+
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        long prevTxID = 0;
+        for (int i = 0; i < records.length; i++) {
+            int start = buffer.position();
+            LogRecords.changeToByte(records[i], prevTxID, buffer, null);
+            int reserved = records[i].size();
+            assert(buffer.position() - start == sizes[i]);
+            assert(sizes[i] <= reserved);
+            if (records[i].hasTxID()) {
+                prevTxID = records[i].getTxID();
+            }
+        }
+
+        buffer.flip();
+        prevTxID = 0;
+        for (LogRecords expected : records) {
+            LogRecords actual = LogRecords.changeToLogRecord(buffer, prevTxID);
+            assert(actual.getType() == expected.getType());
+            if (expected.hasTxID()) {
+                assert(actual.getTxID() == expected.getTxID());
+                prevTxID = actual.getTxID();
+            }
+            if (expected.getValue() != null) {
+                assert(actual.getKey() == expected.getKey());
+                assert(Arrays.equals(actual.getValue(), expected.getValue()));
+            }
+            assert(actual.getTag() == expected.getTag());
+        }
+        assert(!buffer.hasRemaining());
+    }
+}
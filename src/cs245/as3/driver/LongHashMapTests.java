@@ -0,0 +1,92 @@
+package cs245.as3.driver;
+
+import java.util.HashMap;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import org.junit.Test;
+
+import cs245.as3.ConcurrentLongHashMap;
+import cs245.as3.LongHashMap;
+
+public class LongHashMapTests {
+
+    /**
+     * Random puts and removes on a small key space, checked against a HashMap.
+     */
+    @Test
+    public void TestRandomOps() {
+        Random r = new Random(42);
+        LongHashMap<Long> map = new LongHashMap<>();
+        HashMap<Long, Long> expected = new HashMap<>();
+        for (int i = 0; i < 200000; i++) {
+            long key = r.nextInt(1000) - 500;
+            if (r.nextInt(3) == 0) {
+                Long removed = map.remove(key);
+                Long expectedRemoved = expected.remove(key);
+                assert(equal(removed, expectedRemoved));
+            } else {
+                long value = r.nextLong();
+                Long previous = map.put(key, value);
+                Long expectedPrevious = expected.put(key, value);
+                assert(equal(previous, expectedPrevious));
+            }
+            assert(map.size() == expected.size());
+        }
+        for (long key = -500; key < 500; key++) {
+            assert(equal(map.get(key), expected.get(key)));
+        }
+        int seen = 0;
+        for (int slot = map.nextSlot(0); slot >= 0; slot = map.nextSlot(slot + 1)) {
+            assert(map.valueAt(slot).equals(expected.get(map.keyAt(slot))));
+            seen++;
+        }
+        assert(seen == expected.size());
+    }
+
+    @Test
+    public void TestCopyAndClear() {
+        HashMap<Long, String> source = new HashMap<>();
+        for (long key = 0; key < 100; key++) {
+            source.put(key * 0x100000000L, "v" + key);
+        }
+        LongHashMap<String> map = new LongHashMap<>(source);
+        for (Entry<Long, String> entry : source.entrySet()) {
+            assert(entry.getValue().equals(map.get(entry.getKey())));
+        }
+        map.clear();
+        assert(map.isEmpty());
+        assert(map.get(0) == null);
+    }
+
+    @Test
+    public void TestConcurrentStripes() throws InterruptedException {
+        final ConcurrentLongHashMap<Long> map = new ConcurrentLongHashMap<>(8);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long base = t * 100000L;
+            threads[t] = new Thread(() -> {
+                for (long key = base; key < base + 10000; key++) {
+                    map.put(key, key);
+                }
+                for (long key = base; key < base + 10000; key += 2) {
+                    map.remove(key);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assert(map.size() == threads.length * 5000);
+        assert(map.get(1) == 1L);
+        assert(map.get(2) == null);
+        Long present = map.putIfAbsent(1, 7L);
+        assert(present == 1L);
+        assert(map.get(1) == 1L);
+    }
+
+    private static boolean equal(Long a, Long b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,89 @@
+package cs245.as3.driver;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import cs245.as3.DirectLogManager;
+import cs245.as3.LogManagerAdapter;
+import cs245.as3.TransactionManager;
+import cs245.as3.interfaces.LsnLogManager;
+import cs245.as3.interfaces.StorageManager.TaggedValue;
+
+public class LsnLogManagerTests {
+
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    /**
+     * A TransactionManager on a log whose LSNs are past the int range commits, truncates and recovers,
+     * and the tags it hands to the StorageManager are those 64-bit LSNs.
+     */
+    @Test
+    public void TestBeyondIntRange() {
+        long start = 3L << 31;
+        DirectLogManager lm = new DirectLogManager(64 * 1024, start);
+        StorageManagerImpl sm = new StorageManagerImpl();
+        TransactionManager tm = Fixtures.recover(sm, lm);
+
+        byte[][] latest = new byte[50][];
+        Random r = new Random(245);
+        for (int i = 0; i < 5000; i++) {
+            tm.start(i);
+            int key = r.nextInt(latest.length);
+            latest[key] = String.format("value %d", i).getBytes();
+            tm.write(i, key, latest[key]);
+            tm.commit(i);
+            if (i % 500 == 499) {
+                sm.do_persistence_work();
+            }
+        }
+        assert(lm.getLogTruncationLsn() > start);
+        try {
+            lm.getLogEndOffset();
+            assert(false);
+        } catch (IllegalStateException e) {
+            // the int interface cannot address this log
+        }
+
+        sm.crash();
+        sm.in_recovery = true;
+        for (TaggedValue value : sm.readStoredTable().values()) {
+            assert(value.tag > start);
+        }
+        sm.in_recovery = false;
+        tm = Fixtures.recover(sm, lm);
+        for (int key = 0; key < latest.length; key++) {
+            assert(Arrays.equals(tm.read(5000, key), latest[key]));
+        }
+    }
+
+    /**
+     * The adapter passes LsnLogManagers through and maps LSNs one to one onto an int LogManager.
+     */
+    @Test
+    public void TestAdapter() {
+        DirectLogManager direct = new DirectLogManager();
+        assert(LogManagerAdapter.of(direct) == direct);
+
+        LsnLogManager lm = LogManagerAdapter.of(new LogManagerImpl());
+        byte[] record = "record".getBytes();
+        long first = lm.appendLog(record);
+        long second = lm.appendLog(record);
+        assert(first == 0);
+        assert(second == record.length);
+        assert(lm.getLogEndLsn() == 2 * record.length);
+        assert(Arrays.equals(lm.readLog(record.length, record.length), record));
+        lm.setLogTruncationLsn(record.length);
+        assert(lm.getLogTruncationLsn() == record.length && lm.getLogTruncationOffset() == record.length);
+        try {
+            lm.setLogTruncationLsn(1L << 32);
+            assert(false);
+        } catch (IllegalStateException e) {
+            // beyond what the wrapped LogManager can address
+        }
+    }
+}
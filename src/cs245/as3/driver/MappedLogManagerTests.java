@@ -0,0 +1,111 @@
+package cs245.as3.driver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import cs245.as3.MappedLogManager;
+import cs245.as3.TransactionManager;
+
+public class MappedLogManagerTests {
+
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    private static long segmentCount(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.filter(path -> path.toString().endsWith(".log")).count();
+        }
+    }
+
+    /**
+     * Records spanning segment boundaries read back intact through both readLogRecord and the read-only
+     * views, before and after reopening. Views stop at segment boundaries and are not copies.
+     */
+    @Test
+    public void TestAppendReadReopen() throws IOException {
+        Path directory = Files.createTempDirectory("mappedlog");
+        try {
+            Random r = new Random(245);
+            ArrayList<byte[]> records = new ArrayList<>();
+            ArrayList<Integer> offsets = new ArrayList<>();
+            try (MappedLogManager lm = new MappedLogManager(directory, 1000)) {
+                for (int i = 0; i < 300; i++) {
+                    byte[] record = new byte[1 + r.nextInt(128)];
+                    r.nextBytes(record);
+                    offsets.add(lm.appendLogRecord(record));
+                    records.add(record);
+                }
+            }
+            try (MappedLogManager lm = new MappedLogManager(directory, 1000)) {
+                int end = lm.getLogEndOffset();
+                assert(end == offsets.get(offsets.size() - 1) + records.get(records.size() - 1).length);
+                byte[] log = new byte[end];
+                for (int position = 0; position < end; ) {
+                    ByteBuffer view = lm.readLogBuffer(position, end - position);
+                    assert(view.isReadOnly() && view.isDirect());
+                    assert(view.remaining() <= 1000 - position % 1000);
+                    int n = view.remaining();
+                    view.get(log, position, n);
+                    position += n;
+                }
+                for (int i = 0; i < records.size(); i++) {
+                    int offset = offsets.get(i);
+                    byte[] record = records.get(i);
+                    assert(Arrays.equals(Arrays.copyOfRange(log, offset, offset + record.length), record));
+                    assert(Arrays.equals(lm.readLogRecord(offset, record.length), record));
+                }
+            }
+        } finally {
+            Fixtures.delete(directory);
+        }
+    }
+
+    /**
+     * A TransactionManager on a MappedLogManager recovers committed data after the process restarts,
+     * and truncation recycles the segment files it no longer needs instead of creating new ones.
+     */
+    @Test
+    public void TestTransactionManagerRestart() throws IOException {
+        Path directory = Files.createTempDirectory("mappedlog");
+        try {
+            StorageManagerImpl sm = new StorageManagerImpl();
+            byte[][] latest = new byte[20][];
+            Random r = new Random(7);
+            try (MappedLogManager lm = new MappedLogManager(directory, 4096)) {
+                TransactionManager tm = Fixtures.recover(sm, lm);
+                for (int i = 0; i < 3000; i++) {
+                    tm.start(i);
+                    int key = r.nextInt(latest.length);
+                    latest[key] = String.format("value %d", i).getBytes();
+                    tm.write(i, key, latest[key]);
+                    tm.commit(i);
+                    if (i % 300 == 299) {
+                        sm.do_persistence_work();
+                    }
+                }
+                assert(segmentCount(directory) * 4096 < lm.getLogEndOffset());
+                assert(lm.getCreatedSegmentCount() * 4096 < lm.getLogEndOffset());
+            }
+            sm.crash();
+
+            try (MappedLogManager lm = new MappedLogManager(directory, 4096)) {
+                TransactionManager tm = Fixtures.recover(sm, lm);
+                for (int key = 0; key < latest.length; key++) {
+                    assert(Arrays.equals(tm.read(3000, key), latest[key]));
+                }
+            }
+        } finally {
+            Fixtures.delete(directory);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package cs245.as3.driver;
+
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import cs245.as3.TransactionManager;
+
+public class ParallelRedoTests {
+
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    /**
+     * Enough unpersisted keys to take the parallel redo path: every key must come back with its
+     * last committed value, both in the transaction manager and in storage.
+     */
+    @Test
+    public void TestParallelRedo() {
+        LogManagerImpl lm = new LogManagerImpl();
+        StorageManagerImpl sm = new StorageManagerImpl();
+        TransactionManager tm = Fixtures.recover(sm, lm);
+
+        int keys = TransactionManager.PARALLEL_REDO_THRESHOLD * 3;
+        long txID = 0;
+        for (int round = 0; round < 2; round++) {
+            for (int key = 0; key < keys; key += 4) {
+                tm.start(txID);
+                for (int k = key; k < key + 4; k++) {
+                    tm.write(txID, k, String.format("%d-%d", k, round).getBytes());
+                }
+                tm.commit(txID);
+                txID++;
+            }
+            if (round == 0) {
+                // 一部分旧版本持久化后，重做时必须用日志中更新的版本覆盖
+                sm.do_persistence_work();
+            }
+        }
+
+        sm.crash();
+        tm = Fixtures.recover(sm, lm);
+        for (int k = 0; k < keys; k++) {
+            assert(Arrays.equals(tm.read(txID, k), String.format("%d-1", k).getBytes()));
+        }
+        while (sm.do_persistence_work()) {
+        }
+        // 崩溃后存储中只剩已经持久化的版本
+        sm.crash();
+        for (int k = 0; k < keys; k++) {
+            assert(Arrays.equals(sm.readLatestValue(k), String.format("%d-1", k).getBytes()));
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package cs245.as3.driver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import cs245.as3.DirectLogManager;
+import cs245.as3.FileLogManager;
+import cs245.as3.LogManagerAdapter;
+import cs245.as3.LogReader;
+import cs245.as3.MappedLogManager;
+import cs245.as3.TransactionManager;
+import cs245.as3.interfaces.LsnLogManager;
+
+public class ReadAheadTests {
+
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    /**
+     * readLogRange returns the same bytes on every log manager, across segment boundaries and into
+     * a buffer that already holds data.
+     */
+    @Test
+    public void TestReadLogRange() throws IOException {
+        Random r = new Random(245);
+        byte[] log = new byte[5000];
+        r.nextBytes(log);
+        Path directory = Files.createTempDirectory("readahead");
+        try (FileLogManager file = new FileLogManager(directory.resolve("file"), 1000);
+             MappedLogManager mapped = new MappedLogManager(directory.resolve("mapped"), 1000)) {
+            LsnLogManager[] managers = { new DirectLogManager(1000), file, mapped, LogManagerAdapter.of(new LogManagerImpl()) };
+            for (LsnLogManager lm : managers) {
+                for (int offset = 0; offset < log.length; offset += 100) {
+                    lm.appendLog(Arrays.copyOfRange(log, offset, offset + 100));
+                }
+                ByteBuffer dst = ByteBuffer.allocate(4000);
+                dst.put((byte) 1);
+                lm.readLogRange(650, 3500, dst);
+                assert(dst.position() == 3501 && dst.get(0) == 1);
+                assert(Arrays.equals(Arrays.copyOfRange(dst.array(), 1, 3501), Arrays.copyOfRange(log, 650, 4150)));
+            }
+        } finally {
+            Fixtures.delete(directory);
+        }
+    }
+
+    /**
+     * Recovery from a FileLogManager log several read windows long goes through the prefetching
+     * reader and restores every committed value.
+     */
+    @Test
+    public void TestPrefetchingRecovery() throws IOException {
+        Path directory = Files.createTempDirectory("readahead");
+        try {
+            StorageManagerImpl sm = new StorageManagerImpl();
+            byte[][] latest = new byte[4000][];
+            Random r = new Random(7);
+            try (FileLogManager lm = new FileLogManager(directory)) {
+                TransactionManager tm = Fixtures.recover(sm, lm);
+                for (int i = 0; i < 40; i++) {
+                    tm.start(i);
+                    for (int j = 0; j < 100; j++) {
+                        int key = i * 100 + j;
+                        latest[key] = new byte[1000];
+                        r.nextBytes(latest[key]);
+                        tm.write(i, key, latest[key]);
+                    }
+                    tm.commit(i);
+                }
+                assert(lm.getLogEndLsn() - lm.getLogTruncationLsn() > 3 * LogReader.READ_WINDOW);
+            }
+            sm.crash();
+            try (FileLogManager lm = new FileLogManager(directory)) {
+                TransactionManager tm = Fixtures.recover(sm, lm);
+                for (int key = 0; key < latest.length; key++) {
+                    assert(Arrays.equals(tm.read(40, key), latest[key]));
+                }
+            }
+        } finally {
+            Fixtures.delete(directory);
+        }
+    }
+
+    /**
+     * A crash raised while a window is being prefetched surfaces from recovery with its own type,
+     * and a later recovery on the same log succeeds.
+     */
+    @Test
+    public void TestPrefetchCrash() {
+        LogManagerImpl lm = new LogManagerImpl();
+        StorageManagerImpl sm = new StorageManagerImpl();
+        TransactionManager tm = Fixtures.recover(sm, LogManagerAdapter.of(lm));
+        byte[][] values = new byte[3000][];
+        Random r = new Random(11);
+        for (int t = 0; t < 3; t++) {
+            tm.start(t);
+            for (int i = t * 1000; i < (t + 1) * 1000; i++) {
+                values[i] = new byte[1000];
+                r.nextBytes(values[i]);
+                tm.write(t, i, values[i]);
+            }
+            tm.commit(t);
+        }
+        int length = lm.getLogEndOffset() - lm.getLogTruncationOffset();
+        assert(length > 2 * LogReader.READ_WINDOW);
+        sm.crash();
+
+        // the last windows are read by the prefetch thread
+        lm.stopServingRequestsAfterIOs(length / 128 - 10);
+        try {
+            Fixtures.recover(sm, LogManagerAdapter.of(lm));
+            assert(false);
+        } catch (RuntimeException e) {
+            assert(e.getClass().getSimpleName().equals("CrashException"));
+        }
+        lm.resumeServingRequests();
+        sm.crash();
+        tm = Fixtures.recover(sm, LogManagerAdapter.of(lm));
+        for (int i = 0; i < values.length; i++) {
+            assert(Arrays.equals(tm.read(3000, i), values[i]));
+        }
+    }
+}
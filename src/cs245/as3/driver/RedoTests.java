@@ -0,0 +1,73 @@
+package cs245.as3.driver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import cs245.as3.TransactionManager;
+
+public class RedoTests {
+
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    /**
+     * Records the keys queued while the store is in recovery.
+     */
+    private static class CountingStorageManager extends StorageManagerImpl {
+        final ArrayList<Long> redone = new ArrayList<>();
+
+        @Override
+        public void queueWrite(long key, long tag, byte[] value) {
+            if (in_recovery) {
+                synchronized (redone) {
+                    redone.add(key);
+                }
+            }
+            super.queueWrite(key, tag, value);
+        }
+    }
+
+    /**
+     * A key overwritten by many committed transactions is queued once at restart, with its final value,
+     * and a key still in the log whose stored version is already the final one is not queued at all.
+     */
+    @Test
+    public void TestRedoQueuesFinalVersionOnly() {
+        LogManagerImpl lm = new LogManagerImpl();
+        CountingStorageManager sm = new CountingStorageManager();
+        TransactionManager tm = Fixtures.recover(sm, lm);
+        // key 7 stays unpersisted, so the log is kept from its write and still holds every later one
+        sm.blockPersistenceForKeys(new long[] { 1, 7 });
+
+        tm.start(0);
+        tm.write(0, 7, "7".getBytes());
+        tm.write(0, 1, "1-0".getBytes());
+        tm.commit(0);
+        tm.start(1);
+        tm.write(1, 2, "2".getBytes());
+        tm.commit(1);
+        sm.do_persistence_work();
+        for (int txID = 2; txID < 50; txID++) {
+            tm.start(txID);
+            tm.write(txID, 1, ("1-" + txID).getBytes());
+            tm.commit(txID);
+        }
+        tm.start(50);
+        tm.write(50, 3, "uncommitted".getBytes());
+
+        assert(lm.getLogTruncationOffset() == 0);
+        sm.crash();
+        tm = Fixtures.recover(sm, lm);
+        assert(new HashSet<>(sm.redone).equals(new HashSet<>(Arrays.asList(1L, 7L))));
+        assert(sm.redone.size() == 2);
+        assert(Arrays.equals(tm.read(51, 1), "1-49".getBytes()));
+        assert(Arrays.equals(tm.read(51, 2), "2".getBytes()));
+        assert(Arrays.equals(tm.read(51, 7), "7".getBytes()));
+        assert(tm.read(51, 3) == null);
+    }
+}
@@ -0,0 +1,148 @@
+package cs245.as3.driver;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import cs245.as3.TruncationTracker;
+
+public class TruncationTrackerTests {
+
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    /**
+     * A tag anywhere inside a batch is charged to that batch, and tags before the oldest tracked batch are ignored.
+     */
+    @Test
+    public void TestFindsBatchOfTag() {
+        TruncationTracker tracker = new TruncationTracker();
+        for (long start = 1000; start < 2000; start += 100) {
+            tracker.addWrite(start);
+        }
+        boolean moved = tracker.persisted(999);
+        assert(!moved);
+        assert(tracker.lowWaterMark() == 1000);
+
+        moved = tracker.persisted(1550);
+        assert(!moved);
+        moved = tracker.persisted(1599);
+        assert(!moved);
+        // the batch at 1500 has no writes left, another tag in it changes nothing
+        assert(tracker.lowWaterMark() == 1000);
+
+        moved = tracker.persisted(1000);
+        assert(moved);
+        assert(tracker.lowWaterMark() == 1100);
+        moved = tracker.persisted(1999);
+        assert(!moved);
+        assert(tracker.lowWaterMark() == 1100);
+    }
+
+    /**
+     * Persisting a batch in the middle of the ring while older batches still have writes does not move
+     * the low-water mark; once the oldest batch drains, the head skips every drained batch behind it.
+     */
+    @Test
+    public void TestPersistedInMiddle() {
+        TruncationTracker tracker = new TruncationTracker();
+        tracker.addWrite(0);
+        tracker.addWrite(0);
+        tracker.addWrite(128);
+        tracker.addWrite(256);
+        tracker.addWrite(384);
+
+        boolean moved = tracker.persisted(256);
+        assert(!moved);
+        moved = tracker.persisted(128);
+        assert(!moved);
+        moved = tracker.persisted(0);
+        assert(!moved);
+        assert(tracker.lowWaterMark() == 0);
+
+        moved = tracker.persisted(0);
+        assert(moved);
+        assert(tracker.lowWaterMark() == 384);
+        moved = tracker.persisted(384);
+        assert(moved);
+        assert(tracker.isEmpty());
+    }
+
+    /**
+     * Batches added after the head has advanced wrap around the end of the ring,
+     * and growing the ring while the head is not at slot 0 keeps every batch in order.
+     */
+    @Test
+    public void TestWrapAroundAndGrow() {
+        TruncationTracker tracker = new TruncationTracker();
+        long next = 0;
+        for (int i = 0; i < 40; i++) {
+            tracker.addWrite(next);
+            next += 10;
+        }
+        for (long start = 0; start < 30 * 10; start += 10) {
+            tracker.persisted(start);
+        }
+        assert(tracker.lowWaterMark() == 300);
+
+        // 10 batches left; 54 more fill the initial ring of 64 and wrap around its end
+        for (int i = 0; i < 54; i++) {
+            tracker.addWrite(next);
+            next += 10;
+        }
+        // the next batches grow the ring while the head sits in the middle of it
+        for (int i = 0; i < 100; i++) {
+            tracker.addWrite(next);
+            next += 10;
+        }
+        for (long start = 300; start < next; start += 10) {
+            assert(tracker.lowWaterMark() == start);
+            boolean moved = tracker.persisted(start + 5);
+            assert(moved);
+        }
+        assert(tracker.isEmpty());
+    }
+
+    /**
+     * Random writes and persistence callbacks checked against a sorted map of per-batch counts.
+     * Batches are at least 100 bytes apart, so a tag within 100 bytes of its batch start stays in that batch.
+     */
+    @Test
+    public void TestRandomAgainstModel() {
+        Random r = new Random(245);
+        TruncationTracker tracker = new TruncationTracker();
+        TreeMap<Long, Integer> expected = new TreeMap<>();
+        ArrayList<Long> unpersisted = new ArrayList<>();
+        long batch = 0;
+        for (int i = 0; i < 200000; i++) {
+            if (unpersisted.isEmpty() || r.nextInt(2) == 0) {
+                if (r.nextInt(4) == 0) {
+                    batch += 100 + r.nextInt(1000);
+                }
+                tracker.addWrite(batch);
+                expected.merge(batch, 1, Integer::sum);
+                unpersisted.add(batch + r.nextInt(100));
+            } else {
+                long tag = unpersisted.remove(r.nextInt(unpersisted.size()));
+                Map.Entry<Long, Integer> entry = expected.floorEntry(tag);
+                boolean headBatch = entry.getKey().equals(expected.firstKey()) && entry.getValue() == 1;
+                if (entry.getValue() == 1) {
+                    expected.remove(entry.getKey());
+                } else {
+                    expected.put(entry.getKey(), entry.getValue() - 1);
+                }
+                boolean moved = tracker.persisted(tag);
+                assert(moved == headBatch);
+            }
+            assert(tracker.isEmpty() == expected.isEmpty());
+            if (!expected.isEmpty()) {
+                assert(tracker.lowWaterMark() == expected.firstKey());
+            }
+        }
+    }
+}
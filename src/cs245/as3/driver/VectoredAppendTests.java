@@ -0,0 +1,136 @@
+package cs245.as3.driver;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import cs245.as3.DirectLogManager;
+import cs245.as3.FileLogManager;
+import cs245.as3.MappedLogManager;
+import cs245.as3.TransactionManager;
+import cs245.as3.interfaces.LsnLogManager;
+
+public class VectoredAppendTests {
+
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    private static byte[][] records(Random r, int n) {
+        byte[][] records = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            records[i] = new byte[1 + r.nextInt(128)];
+            r.nextBytes(records[i]);
+        }
+        return records;
+    }
+
+    private static byte[] concat(byte[][] records) {
+        int length = 0;
+        for (byte[] record : records) {
+            length += record.length;
+        }
+        byte[] all = new byte[length];
+        int position = 0;
+        for (byte[] record : records) {
+            System.arraycopy(record, 0, all, position, record.length);
+            position += record.length;
+        }
+        return all;
+    }
+
+    /**
+     * appendLogs lays the records out back to back on every log manager, including the default
+     * one-record-at-a-time implementation used for LogManagerImpl.
+     */
+    @Test
+    public void TestAppendLogs() throws IOException {
+        Random r = new Random(245);
+        Path directory = Files.createTempDirectory("vectoredlog");
+        try (FileLogManager file = new FileLogManager(directory.resolve("file"), 1000);
+             MappedLogManager mapped = new MappedLogManager(directory.resolve("mapped"), 1000)) {
+            LsnLogManager[] managers = { new DirectLogManager(1000), file, mapped };
+            for (LsnLogManager lm : managers) {
+                lm.appendLog(new byte[7]);
+                byte[][] records = records(r, 30);
+                long start = lm.appendLogs(records);
+                assert(start == 7);
+                byte[] all = concat(records);
+                assert(lm.getLogEndLsn() == 7 + all.length);
+                assert(Arrays.equals(lm.readLog(7, all.length), all));
+                long empty = lm.appendLogs(new byte[0][]);
+                assert(empty == lm.getLogEndLsn());
+            }
+        } finally {
+            Fixtures.delete(directory);
+        }
+
+        LogManagerImpl lm = new LogManagerImpl();
+        byte[][] records = records(r, 5);
+        int start = lm.appendLogRecords(records);
+        assert(start == 0);
+        byte[] all = concat(records);
+        byte[] read = new byte[all.length];
+        for (int offset = 0; offset < all.length; offset += 128) {
+            int n = Math.min(128, all.length - offset);
+            System.arraycopy(lm.readLogRecord(offset, n), 0, read, offset, n);
+        }
+        assert(Arrays.equals(read, all));
+    }
+
+    /**
+     * A batch crossing several segments is forced once and survives a reopen as a whole.
+     */
+    @Test
+    public void TestSingleSyncPerBatch() throws IOException {
+        Path directory = Files.createTempDirectory("vectoredlog");
+        try {
+            byte[][] records = records(new Random(7), 40);
+            byte[] all = concat(records);
+            try (FileLogManager lm = new FileLogManager(directory, 1000)) {
+                long syncs = lm.getSyncCount();
+                lm.appendLogs(records);
+                assert(lm.getSyncCount() == syncs + 1);
+            }
+            try (FileLogManager lm = new FileLogManager(directory, 1000)) {
+                assert(lm.getLogEndLsn() == all.length);
+                assert(Arrays.equals(lm.readLog(0, all.length), all));
+            }
+        } finally {
+            Fixtures.delete(directory);
+        }
+    }
+
+    /**
+     * A commit whose batch spans many 128-byte chunks costs the FileLogManager a single force.
+     */
+    @Test
+    public void TestCommitSingleSync() throws IOException {
+        Path directory = Files.createTempDirectory("vectoredlog");
+        try (FileLogManager lm = new FileLogManager(directory)) {
+            StorageManagerImpl sm = new StorageManagerImpl();
+            TransactionManager tm = Fixtures.recover(sm, lm);
+            Random r = new Random(11);
+            for (int i = 0; i < 20; i++) {
+                tm.start(i);
+                for (int key = 0; key < 50; key++) {
+                    byte[] value = new byte[100];
+                    r.nextBytes(value);
+                    tm.write(i, key, value);
+                }
+                long syncs = lm.getSyncCount();
+                long end = lm.getLogEndLsn();
+                tm.commit(i);
+                assert(lm.getLogEndLsn() - end > 40 * 128);
+                assert(lm.getSyncCount() == syncs + 1);
+            }
+        } finally {
+            Fixtures.delete(directory);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package cs245.as3.driver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import cs245.as3.DirectLogManager;
+import cs245.as3.LogReader;
+import cs245.as3.LogRecords;
+import cs245.as3.TransactionManager;
+
+public class WriteCoalescingTests {
+
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    private static ArrayList<LogRecords> readLog(DirectLogManager lm) {
+        ArrayList<LogRecords> records = new ArrayList<>();
+        try (LogReader reader = new LogReader(lm, lm.getLogTruncationLsn(), lm.getLogEndLsn())) {
+            while (reader.hasNext()) {
+                records.add(reader.next());
+            }
+        }
+        return records;
+    }
+
+    /**
+     * A key written several times in one transaction is logged once with its last value,
+     * followed by a single commit record.
+     */
+    @Test
+    public void TestLastWriteWins() {
+        DirectLogManager lm = new DirectLogManager();
+        StorageManagerImpl sm = new StorageManagerImpl();
+        TransactionManager tm = Fixtures.recover(sm, lm);
+
+        tm.start(1);
+        for (int i = 0; i < 10; i++) {
+            tm.write(1, 5, ("v" + i).getBytes());
+        }
+        tm.write(1, 6, "only".getBytes());
+        tm.commit(1);
+
+        ArrayList<LogRecords> records = readLog(lm);
+        assert(records.size() == 3);
+        int writes = 0;
+        for (LogRecords record : records) {
+            if (record.getType() == 1 && record.getKey() == 5) {
+                assert(Arrays.equals(record.getValue(), "v9".getBytes()));
+                writes++;
+            }
+        }
+        assert(writes == 1);
+        assert(records.get(2).getType() == 2 && records.get(2).getTxID() == 1);
+        assert(Arrays.equals(tm.read(2, 5), "v9".getBytes()));
+
+        sm.crash();
+        tm = Fixtures.recover(sm, lm);
+        assert(Arrays.equals(tm.read(2, 5), "v9".getBytes()));
+        assert(Arrays.equals(tm.read(2, 6), "only".getBytes()));
+    }
+
+    /**
+     * Transactions without writes, committed synchronously or asynchronously, append nothing to the log.
+     */
+    @Test
+    public void TestNoCommitRecordWithoutWrites() {
+        DirectLogManager lm = new DirectLogManager();
+        StorageManagerImpl sm = new StorageManagerImpl();
+        TransactionManager tm = Fixtures.recover(sm, lm);
+        tm.start(1);
+        tm.write(1, 1, "one".getBytes());
+        tm.commit(1);
+        long end = lm.getLogEndLsn();
+
+        tm.start(2);
+        tm.commit(2);
+        assert(lm.getLogEndLsn() == end);
+
+        tm.start(3);
+        byte[] value = tm.read(3, 1);
+        assert(Arrays.equals(value, "one".getBytes()));
+        tm.commit(3);
+        assert(lm.getLogEndLsn() == end);
+
+        tm.start(4);
+        long lsn = tm.commitAsync(4).join();
+        assert(lsn == -1);
+        assert(lm.getLogEndLsn() == end);
+    }
+}
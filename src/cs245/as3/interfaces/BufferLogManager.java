@@ -0,0 +1,34 @@
+package cs245.as3.interfaces;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * A LogManager that can hand out ranges of the log as read-only ByteBuffers without copying them.
+ * 不复制数据、直接返回日志内容只读视图的LogManager，恢复时用来顺序扫描日志
+ */
+public interface BufferLogManager extends LsnLogManager {
+	/**
+	 * Returns a read-only view of the log starting at lsn. The view may be shorter than maxSize
+	 * (for example it stops at a segment boundary), but it holds at least one byte.
+	 * The view stays valid until the log is truncated past it.
+	 * @return bytes in the range [lsn, lsn + view.remaining()), with view.remaining() <= maxSize
+	 */
+	public ByteBuffer readLogBuffer(long lsn, int maxSize);
+
+	/**
+	 * Copies the range straight out of the read-only views, without an intermediate array.
+	 */
+	@Override
+	public default void readLogRange(long lsn, int length, ByteBuffer dst) {
+		if (dst.remaining() < length) {
+			throw new BufferOverflowException();
+		}
+		int done = 0;
+		while (done < length) {
+			ByteBuffer view = readLogBuffer(lsn + done, length - done);
+			done += view.remaining();
+			dst.put(view);
+		}
+	}
+}
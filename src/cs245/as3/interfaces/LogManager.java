@@ -25,6 +25,26 @@ public interface LogManager {
 	 */
 	public int appendLogRecord(byte[] record);
 
+	/**
+	 * Appends and persists several records in order, like one vectored write, and returns the log length
+	 * prior to the first of them.
+	 * 按顺序追加多条日志记录，相当于一次向量写
+	 * The default implementation calls appendLogRecord once per record, so a crash can leave only a prefix
+	 * of the records in the log. Implementations that can write the records together should override it
+	 * to append them atomically, with a single IO.
+	 * @return the log length prior to the append
+	 */
+	public default int appendLogRecords(byte[][] records) {
+		if (records.length == 0) {
+			return getLogEndOffset();
+		}
+		int prior = appendLogRecord(records[0]);
+		for (int i = 1; i < records.length; i++) {
+			appendLogRecord(records[i]);
+		}
+		return prior;
+	}
+
 	/**
 	 * @return the current log truncation offset
 	 */
@@ -0,0 +1,108 @@
+package cs245.as3.interfaces;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A LogManager addressed by 64-bit log sequence numbers (LSNs), the byte offsets of the log as longs,
+ * so the log can grow past 2 GB without wrapping.
+ * 使用64位日志序列号寻址的LogManager，日志序列号就是long类型的日志偏移，日志超过2GB也不会溢出
+ * <p>
+ * The int methods of LogManager are derived from the LSN methods, so an LsnLogManager can still be handed to
+ * code that only knows LogManager. They throw IllegalStateException once an offset no longer fits in an int.
+ */
+public interface LsnLogManager extends LogManager {
+	/**
+	 * @return the LSN of the end of the log
+	 */
+	public long getLogEndLsn();
+
+	/**
+	 * Reads from log at the specified LSN.
+	 * @return bytes in the log record in the range [lsn, lsn + size)
+	 */
+	public byte[] readLog(long lsn, int size);
+
+	/**
+	 * Reads length bytes of the log starting at lsn into dst, advancing its position. Unlike readLog the
+	 * length is not limited to a single record, so a sequential scan can read the log in large windows.
+	 * 批量读取日志，恢复时用大窗口顺序扫描
+	 * The default implementation reads the range with a single readLog call.
+	 * @throws java.nio.BufferOverflowException if dst has less than length bytes remaining
+	 */
+	public default void readLogRange(long lsn, int length, ByteBuffer dst) {
+		dst.put(readLog(lsn, length));
+	}
+
+	/**
+	 * Atomically appends and persists record to the end of the log, like LogManager.appendLogRecord.
+	 * @return the LSN of the log end prior to the append
+	 */
+	public long appendLog(byte[] record);
+
+	/**
+	 * Appends and persists several records in order, like LogManager.appendLogRecords. The default
+	 * implementation calls appendLog once per record.
+	 * @return the LSN of the log end prior to the append
+	 */
+	public default long appendLogs(byte[][] records) {
+		if (records.length == 0) {
+			return getLogEndLsn();
+		}
+		long prior = appendLog(records[0]);
+		for (int i = 1; i < records.length; i++) {
+			appendLog(records[i]);
+		}
+		return prior;
+	}
+
+	/**
+	 * @return the current log truncation LSN
+	 */
+	public long getLogTruncationLsn();
+
+	/**
+	 * Durably stores the LSN as the current log truncation point and truncates the log up to that point.
+	 */
+	public void setLogTruncationLsn(long lsn);
+
+	@Override
+	public default int getLogEndOffset() {
+		return toOffset(getLogEndLsn());
+	}
+
+	@Override
+	public default byte[] readLogRecord(int offset, int size) {
+		return readLog(offset, size);
+	}
+
+	@Override
+	public default int appendLogRecord(byte[] record) {
+		return toOffset(appendLog(record));
+	}
+
+	@Override
+	public default int appendLogRecords(byte[][] records) {
+		return toOffset(appendLogs(records));
+	}
+
+	@Override
+	public default int getLogTruncationOffset() {
+		return toOffset(getLogTruncationLsn());
+	}
+
+	@Override
+	public default void setLogTruncationOffset(int offset) {
+		setLogTruncationLsn(offset);
+	}
+
+	/**
+	 * @return lsn as an int offset of the LogManager interface
+	 * @throws IllegalStateException if lsn does not fit in an int
+	 */
+	public static int toOffset(long lsn) {
+		if (lsn > Integer.MAX_VALUE) {
+			throw new IllegalStateException("LSN " + lsn + " does not fit the int LogManager interface");
+		}
+		return (int) lsn;
+	}
+}